@@ -0,0 +1,128 @@
+package test.thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import thep.paillier.Ciphertext;
+import thep.paillier.CiphertextAccumulator;
+import thep.paillier.EncryptedInteger;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+
+public class CiphertextAccumulatorTest extends TestCase {
+	private PrivateKey priv;
+	private PublicKey pub;
+	private Random rng;
+	
+	public CiphertextAccumulatorTest(String name) {
+		super(name);
+	}
+	
+	protected void setUp() {
+		priv = new PrivateKey(1024);
+		pub = priv.getPublicKey();
+		rng = new Random();
+	}
+	
+	public void testEmpty() throws BigIntegerClassNotValid {
+		CiphertextAccumulator acc = new CiphertextAccumulator(pub);
+		assertEquals(BigInteger.ZERO, acc.getResult().decrypt(priv));
+		assertEquals(0, acc.getCount());
+	}
+	
+	public void testAdd() throws PublicKeysNotEqualException, BigIntegerClassNotValid {
+		CiphertextAccumulator acc = new CiphertextAccumulator(pub);
+		BigInteger expected = BigInteger.ZERO;
+		
+		for (int i=0; i < 50; i++) {
+			BigInteger value = new BigInteger(64, rng);
+			expected = expected.add(value);
+			
+			// Mix ordinary, Montgomery form and immutable ciphertexts
+			EncryptedInteger tmp = new EncryptedInteger(value, pub);
+			if (i % 3 == 1) {
+				tmp.toMontgomeryForm();
+				acc.add(tmp);
+			}
+			else if (i % 3 == 2) {
+				acc.add(new Ciphertext(tmp));
+			}
+			else {
+				acc.add(tmp);
+			}
+		}
+		
+		assertEquals(50, acc.getCount());
+		assertEquals(expected.mod(pub.getN()), acc.getResult().decrypt(priv));
+		
+		// The accumulator can be added to after getting a result
+		acc.add(BigInteger.TEN);
+		acc.add(-3);
+		assertEquals(expected.add(BigInteger.valueOf(7)).mod(pub.getN()), acc.getCiphertext().decrypt(priv));
+		
+		acc.reset();
+		assertEquals(BigInteger.ZERO, acc.getResult().decrypt(priv));
+	}
+	
+	public void testConstants() throws BigIntegerClassNotValid {
+		CiphertextAccumulator acc = new CiphertextAccumulator(pub);
+		long[] constants = {Long.MAX_VALUE, Long.MAX_VALUE, 5, Long.MIN_VALUE, -7};
+		BigInteger expected = BigInteger.ONE;
+		
+		// The long sum overflows in both directions
+		acc.add(BigInteger.ONE);
+		for (long c : constants) {
+			acc.add(c);
+			expected = expected.add(BigInteger.valueOf(c));
+		}
+		
+		assertEquals(expected, acc.getResult().decrypt(priv));
+	}
+	
+	public void testAddScaled() throws PublicKeysNotEqualException, BigIntegerClassNotValid {
+		CiphertextAccumulator acc = new CiphertextAccumulator(pub);
+		BigInteger N = pub.getN();
+		BigInteger expected = BigInteger.ZERO;
+		
+		for (int i=0; i < 20; i++) {
+			BigInteger value = new BigInteger(64, rng);
+			BigInteger k;
+			if (i % 4 == 0) {
+				k = BigInteger.valueOf(-rng.nextInt(1000));
+			}
+			else if (i % 4 == 1) {
+				k = new BigInteger(N.bitLength() + 10, rng);
+			}
+			else {
+				k = new BigInteger(32, rng);
+			}
+			expected = expected.add(value.multiply(k));
+			
+			Ciphertext c = Ciphertext.encrypt(value, pub);
+			if (i % 2 == 0) {
+				acc.addScaled(c, k);
+			}
+			else {
+				acc.addScaled(c.toEncryptedInteger(), k);
+			}
+			acc.add(c);
+			expected = expected.add(value);
+		}
+		
+		assertEquals(expected.mod(N), acc.getResult().decrypt(priv));
+	}
+	
+	public void testDifferentKeys() {
+		CiphertextAccumulator acc = new CiphertextAccumulator(pub);
+		PublicKey other = new PrivateKey(512).getPublicKey();
+		
+		try {
+			acc.add(Ciphertext.encrypt(BigInteger.ONE, other));
+			fail("Expected PublicKeysNotEqualException");
+		} catch (PublicKeysNotEqualException e) {
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package test.thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import thep.paillier.BatchDecryptor;
+import thep.paillier.BatchEncryptor;
+import thep.paillier.CiphertextBatch;
+import thep.paillier.EncryptedInteger;
+import thep.paillier.MontgomeryContext;
+import thep.paillier.MultiExponentiation;
+import thep.paillier.PackedEncryptedInteger;
+import thep.paillier.PackingScheme;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+
+public class CiphertextBatchTest extends TestCase {
+	private PrivateKey priv;
+	private PublicKey pub;
+	private Random rng;
+	
+	public CiphertextBatchTest(String name) {
+		super(name);
+	}
+	
+	protected void setUp() {
+		priv = new PrivateKey(1024);
+		pub = priv.getPublicKey();
+		rng = new Random();
+	}
+	
+	/*
+	 * Encrypts an array of values in parallel and checks each of them
+	 */
+	public void testEncryptArray() throws BigIntegerClassNotValid {
+		BigInteger[] values = new BigInteger[100];
+		for (int i=0; i<values.length; i++) {
+			values[i] = new BigInteger(1000, rng);
+		}
+		
+		CiphertextBatch batch = new BatchEncryptor(pub, new ForkJoinPool(4)).encrypt(values);
+		assertEquals(values.length, batch.size());
+		assertSame(pub, batch.getPublicKey());
+		
+		EncryptedInteger[] encrypted = batch.toArray();
+		for (int i=0; i<values.length; i++) {
+			assertEquals(values[i], encrypted[i].decrypt(priv));
+			assertEquals(batch.getCipherVal(i), encrypted[i].getCipherVal());
+		}
+	}
+	
+	/*
+	 * Encrypts longs, including negative values
+	 */
+	public void testEncryptLongs() throws BigIntegerClassNotValid {
+		long[] values = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 12345};
+		CiphertextBatch batch = new BatchEncryptor(priv).encrypt(values);
+		
+		for (int i=0; i<values.length; i++) {
+			BigInteger expected = BigInteger.valueOf(values[i]).mod(pub.getN());
+			assertEquals(expected, batch.get(i).decrypt(priv));
+		}
+	}
+	
+	/*
+	 * Encrypts a stream and checks that the order is kept
+	 */
+	public void testEncryptStream() throws BigIntegerClassNotValid {
+		BigInteger[] values = new BigInteger[50];
+		for (int i=0; i<values.length; i++) {
+			values[i] = BigInteger.valueOf(i);
+		}
+		
+		CiphertextBatch batch = new BatchEncryptor(pub).encrypt(Arrays.stream(values));
+		assertEquals(values.length, batch.size());
+		for (int i=0; i<values.length; i++) {
+			assertEquals(values[i], batch.get(i).decrypt(priv));
+		}
+	}
+	
+	/*
+	 * Encrypted integers taken from a batch work like any other
+	 */
+	public void testBatchIntegers() throws Exception {
+		CiphertextBatch batch = new BatchEncryptor(pub).encrypt(new long[] {20, 22});
+		EncryptedInteger sum = batch.get(0).add(batch.get(1));
+		sum.rerandomize();
+		assertEquals(BigInteger.valueOf(42), sum.decrypt(priv));
+		
+		CiphertextBatch copy = new CiphertextBatch(batch.toArray(), pub);
+		assertEquals(batch.getCipherVal(1), copy.getCipherVal(1));
+	}
+	
+	/*
+	 * Decrypts a batch in parallel into BigIntegers
+	 */
+	public void testDecryptArray() {
+		BigInteger[] values = new BigInteger[100];
+		for (int i=0; i<values.length; i++) {
+			values[i] = new BigInteger(1000, rng);
+		}
+		
+		CiphertextBatch batch = new BatchEncryptor(pub).encrypt(values);
+		BigInteger[] out = new BigInteger[values.length];
+		new BatchDecryptor(priv, new ForkJoinPool(4)).decrypt(batch, out, false);
+		
+		for (int i=0; i<values.length; i++) {
+			assertEquals(values[i], out[i]);
+		}
+	}
+	
+	/*
+	 * Decodes negative values, the same way as testDecryptNegative does by hand
+	 */
+	public void testDecryptSigned() throws Exception {
+		long[] values = {0, -1, 2500, -2500, Long.MIN_VALUE, Long.MAX_VALUE};
+		CiphertextBatch batch = new BatchEncryptor(pub).encrypt(values);
+		
+		long[] out = new long[values.length];
+		BatchDecryptor decryptor = new BatchDecryptor(priv);
+		decryptor.decrypt(batch, out, true);
+		for (int i=0; i<values.length; i++) {
+			assertEquals(values[i], out[i]);
+		}
+		
+		EncryptedInteger[] negated = {batch.get(2).multiply(BigInteger.ONE.negate())};
+		BigInteger[] big_out = new BigInteger[1];
+		decryptor.decrypt(negated, big_out, true);
+		assertEquals(BigInteger.valueOf(-2500), big_out[0]);
+		decryptor.decrypt(negated, big_out, false);
+		assertEquals(pub.getN().subtract(BigInteger.valueOf(2500)), big_out[0]);
+		
+		try {
+			decryptor.decrypt(negated, new long[1], false);
+			fail("A plaintext larger than a long was decoded");
+		} catch (ArithmeticException e) {
+		}
+	}
+	
+	/*
+	 * Decrypts a stream and checks that the order is kept
+	 */
+	public void testDecryptStream() {
+		CiphertextBatch batch = new BatchEncryptor(pub).encrypt(new long[] {5, -6, 7});
+		BigInteger[] ciphertexts = {batch.getCipherVal(0), batch.getCipherVal(1), batch.getCipherVal(2)};
+		
+		BigInteger[] out = new BatchDecryptor(priv).decrypt(Arrays.stream(ciphertexts), true);
+		assertEquals(BigInteger.valueOf(5), out[0]);
+		assertEquals(BigInteger.valueOf(-6), out[1]);
+		assertEquals(BigInteger.valueOf(7), out[2]);
+	}
+	
+	/*
+	 * Decrypts packed integers, writing the slots contiguously
+	 */
+	public void testDecryptPacked() throws BigIntegerClassNotValid {
+		PackingScheme scheme = new PackingScheme(pub, 32, 8, 3);
+		PackedEncryptedInteger[] packed = new PackedEncryptedInteger[20];
+		for (int i=0; i<packed.length; i++) {
+			packed[i] = new PackedEncryptedInteger(new long[] {i, 2*i, 3*i}, scheme, pub);
+		}
+		
+		long[] out = new long[packed.length * 3];
+		new BatchDecryptor(priv).decrypt(packed, out);
+		for (int i=0; i<packed.length; i++) {
+			assertEquals(i, out[3*i]);
+			assertEquals(2*i, out[3*i + 1]);
+			assertEquals(3*i, out[3*i + 2]);
+		}
+	}
+	
+	/*
+	 * Checks both multi-exponentiation methods against modPow
+	 */
+	public void testMultiExponentiation() {
+		MontgomeryContext ctx = pub.getMontgomeryContext();
+		BigInteger m = pub.getNSquared();
+		
+		for (int n : new int[] {1, 3, 40}) {
+			BigInteger[] bases = new BigInteger[n];
+			BigInteger[] exponents = new BigInteger[n];
+			BigInteger expected = BigInteger.ONE;
+			for (int i=0; i<n; i++) {
+				bases[i] = new BigInteger(2000, rng).mod(m);
+				exponents[i] = new BigInteger(i % 2 == 0 ? 40 : 300, rng);
+				expected = expected.multiply(bases[i].modPow(exponents[i], m)).mod(m);
+			}
+			
+			assertEquals(expected, MultiExponentiation.compute(ctx, bases, exponents));
+			assertEquals(expected, MultiExponentiation.straus(ctx, bases, exponents, 4));
+			assertEquals(expected, MultiExponentiation.pippenger(ctx, bases, exponents, 5));
+			assertEquals(expected, MultiExponentiation.pippenger(ctx, bases, exponents, 1));
+		}
+		
+		assertEquals(BigInteger.ONE, MultiExponentiation.compute(ctx, new BigInteger[0], new BigInteger[0]));
+	}
+	
+	/*
+	 * Computes an encrypted dot product with positive, negative and zero weights
+	 */
+	public void testWeightedSum() throws BigIntegerClassNotValid {
+		long[] values = new long[60];
+		long[] weights = new long[values.length];
+		long expected = 0;
+		for (int i=0; i<values.length; i++) {
+			values[i] = rng.nextInt(1000) - 500;
+			weights[i] = i % 7 == 0 ? 0 : rng.nextInt(1 << 20) - (1 << 19);
+			expected += values[i] * weights[i];
+		}
+		
+		CiphertextBatch batch = new BatchEncryptor(pub).encrypt(values);
+		BigInteger[] out = new BigInteger[1];
+		new BatchDecryptor(priv).decrypt(new EncryptedInteger[] {batch.weightedSum(weights)}, out, true);
+		assertEquals(BigInteger.valueOf(expected), out[0]);
+		
+		// Weights as large as n are reduced first
+		BigInteger[] big_weights = {pub.getN().add(BigInteger.TEN), pub.getN().subtract(BigInteger.ONE)};
+		CiphertextBatch pair = new BatchEncryptor(pub).encrypt(new long[] {3, 4});
+		assertEquals(BigInteger.valueOf(26), pair.weightedSum(big_weights).decrypt(priv));
+	}
+}
@@ -0,0 +1,101 @@
+package test.thep.paillier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+import thep.paillier.Ciphertext;
+import thep.paillier.EncryptedInteger;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+
+public class CiphertextTest extends TestCase {
+	private PrivateKey priv;
+	private PublicKey pub;
+	
+	public CiphertextTest(String name) {
+		super(name);
+	}
+	
+	protected void setUp() {
+		priv = new PrivateKey(1024);
+		pub = priv.getPublicKey();
+	}
+	
+	public void testEncryptDecrypt() {
+		BigInteger value = BigInteger.valueOf(123456789);
+		Ciphertext a = Ciphertext.encrypt(value, pub);
+		Ciphertext b = Ciphertext.encrypt(value, priv);
+		
+		assertEquals(value, a.decrypt(priv));
+		assertEquals(value, b.decrypt(priv));
+		assertFalse(a.equals(b));
+		
+		// Negative values are stored mod N
+		Ciphertext c = Ciphertext.encrypt(BigInteger.valueOf(-5), pub);
+		assertEquals(pub.getN().subtract(BigInteger.valueOf(5)), c.decrypt(priv));
+	}
+	
+	public void testArithmetic() throws PublicKeysNotEqualException {
+		Ciphertext a = Ciphertext.encrypt(BigInteger.valueOf(7), pub);
+		Ciphertext b = Ciphertext.encrypt(BigInteger.valueOf(35), pub);
+		
+		assertEquals(BigInteger.valueOf(42), a.add(b).decrypt(priv));
+		assertEquals(BigInteger.valueOf(17), a.add(BigInteger.TEN).decrypt(priv));
+		assertEquals(BigInteger.valueOf(70), a.multiply(BigInteger.TEN).decrypt(priv));
+		assertEquals(BigInteger.valueOf(28), b.multiply(BigInteger.valueOf(-1)).add(BigInteger.valueOf(63)).decrypt(priv));
+		
+		// Operations do not change the original
+		assertEquals(BigInteger.valueOf(7), a.decrypt(priv));
+		
+		Ciphertext c = a.rerandomize();
+		assertFalse(a.equals(c));
+		assertEquals(BigInteger.valueOf(7), c.decrypt(priv));
+	}
+	
+	public void testDifferentKeys() {
+		PublicKey other = new PrivateKey(512).getPublicKey();
+		Ciphertext a = Ciphertext.encrypt(BigInteger.ONE, pub);
+		Ciphertext b = Ciphertext.encrypt(BigInteger.ONE, other);
+		
+		try {
+			a.add(b);
+			fail("Expected PublicKeysNotEqualException");
+		} catch (PublicKeysNotEqualException e) {
+		}
+		
+		try {
+			new Ciphertext(pub.getNSquared(), pub);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	public void testEncryptedIntegerConversion() throws BigIntegerClassNotValid {
+		EncryptedInteger a = new EncryptedInteger(BigInteger.valueOf(99), pub);
+		Ciphertext b = new Ciphertext(a);
+		assertEquals(a.getCipherVal(), b.getCipherVal());
+		assertEquals(BigInteger.valueOf(99), b.toEncryptedInteger().decrypt(priv));
+	}
+	
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		Ciphertext a = Ciphertext.encrypt(BigInteger.valueOf(1234), pub);
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(a);
+		oos.close();
+		
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Ciphertext b = (Ciphertext) ois.readObject();
+		
+		assertEquals(a, b);
+		assertEquals(BigInteger.valueOf(1234), b.decrypt(priv));
+	}
+}
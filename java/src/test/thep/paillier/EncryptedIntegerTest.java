@@ -2,16 +2,21 @@ package test.thep.paillier;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import junit.framework.TestCase;
+import thep.paillier.BigIntegerBackend;
 import thep.paillier.EncryptedInteger;
+import thep.paillier.MontgomeryContext;
 import thep.paillier.PrivateKey;
 import thep.paillier.PublicKey;
+import thep.paillier.RandomnessPool;
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 import thep.paillier.exceptions.PublicKeysNotEqualException;
 
@@ -42,6 +47,41 @@ public class EncryptedIntegerTest extends TestCase {
 		assertEquals(tmp, e_int.decrypt(priv));
 	}
 	
+	/*
+	 * Create an encrypted integer using the private key, then make sure it
+	 * behaves like any other encrypted integer.
+	 */
+	public void testCreationWithPrivateKey() throws BigIntegerClassNotValid, PublicKeysNotEqualException {
+		BigInteger tmp1 = new BigInteger(1024, rng).mod(pub.getN());
+		BigInteger tmp2 = new BigInteger(1024, rng).mod(pub.getN());
+		BigInteger expected = tmp1.add(tmp2).mod(pub.getN());
+		EncryptedInteger e_int1 = new EncryptedInteger(tmp1, priv);
+		EncryptedInteger e_int2 = new EncryptedInteger(tmp2, pub);
+		assertEquals(tmp1, e_int1.decrypt(priv));
+		assertEquals(expected, e_int1.add(e_int2).decrypt(priv));
+		
+		e_int2.set(BigInteger.TEN, priv);
+		assertEquals(BigInteger.TEN, e_int2.decrypt(priv));
+		
+		try {
+			e_int2.set(BigInteger.ONE, new PrivateKey(1024));
+			fail();
+		} catch (PublicKeysNotEqualException e) {
+		}
+	}
+	
+	/*
+	 * Make sure the fast plaintext encoding matches g^m mod n^2
+	 */
+	public void testEncode() {
+		BigInteger[] values = {BigInteger.ZERO, BigInteger.ONE, BigInteger.TEN.negate(), 
+				new BigInteger(1024, rng), pub.getN().add(BigInteger.TEN)};
+		
+		for (BigInteger m : values) {
+			assertEquals(pub.getG().modPow(m, pub.getNSquared()), pub.encode(m));
+		}
+	}
+	
 	/*
 	 * Tests the addition of a constant to an EncryptedInteger
 	 */
@@ -71,6 +111,24 @@ public class EncryptedIntegerTest extends TestCase {
 		assertEquals(expected, e_int.decrypt(priv));
 	}
 	
+	/*
+	 * Tests multiplication by constants which take the fast paths: small,
+	 * negative and larger than N
+	 */
+	public void testMultiplicationNormalization() throws BigIntegerClassNotValid {
+		BigInteger N = pub.getN();
+		BigInteger tmp = new BigInteger(1000, rng);
+		EncryptedInteger e_int = new EncryptedInteger(tmp, pub);
+		
+		BigInteger[] constants = {BigInteger.ZERO, BigInteger.ONE, new BigInteger("2"), 
+				new BigInteger("3"), BigInteger.ONE.negate(), new BigInteger("-2"), 
+				new BigInteger("-123456789"), N, N.add(new BigInteger("5")), 
+				N.multiply(new BigInteger("3")).subtract(BigInteger.ONE), new BigInteger(3000, rng)};
+		for (BigInteger k : constants) {
+			assertEquals(tmp.multiply(k).mod(N), e_int.multiply(k).decrypt(priv));
+		}
+	}
+	
 	/*
 	 * Tests the multiplication of a constant to an EncryptedInteger
 	 */
@@ -137,6 +195,170 @@ public class EncryptedIntegerTest extends TestCase {
 		assertEquals(p1, p2);
 	}
 	
+	/*
+	 * Encrypt and rerandomize using a pool of precomputed blinding factors,
+	 * then save the pool and load it into a new one.
+	 */
+	public void testRandomnessPool() throws BigIntegerClassNotValid, IOException {
+		RandomnessPool pool = new RandomnessPool(pub, 2, 8, 2, RandomnessPool.EmptyPolicy.BLOCK);
+		pub.setRandomnessPool(pool);
+		
+		try {
+			for (int i=0; i<20; i++) {
+				BigInteger tmp = new BigInteger(1024, rng).mod(pub.getN());
+				EncryptedInteger e_int = new EncryptedInteger(tmp, pub);
+				BigInteger c1 = e_int.getCipherVal();
+				e_int.rerandomize();
+				assertFalse(c1.equals(e_int.getCipherVal()));
+				assertEquals(tmp, e_int.decrypt(priv));
+			}
+			
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			pool.save(baos);
+			pool.close();
+			
+			RandomnessPool loaded = new RandomnessPool(pub, 0, 64, 0, RandomnessPool.EmptyPolicy.COMPUTE);
+			loaded.load(new ByteArrayInputStream(baos.toByteArray()));
+			
+			// The saved header followed by the pair {0, 1}, which is rejected
+			byte[] saved = baos.toByteArray();
+			ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+			corrupt.write(saved, 0, 10 + ByteBuffer.wrap(saved).getInt(6));
+			DataOutputStream data = new DataOutputStream(corrupt);
+			data.writeInt(1);
+			data.writeInt(0);
+			data.writeInt(1);
+			data.writeByte(1);
+			data.flush();
+			try {
+				loaded.load(new ByteArrayInputStream(corrupt.toByteArray()));
+				fail();
+			} catch (IOException e) {
+			}
+			pub.setRandomnessPool(loaded);
+			EncryptedInteger e_int = new EncryptedInteger(BigInteger.TEN, pub);
+			assertEquals(BigInteger.TEN, e_int.decrypt(priv));
+			
+			// A pool for another key cannot be attached
+			try {
+				new PrivateKey(1024).getPublicKey().setRandomnessPool(loaded);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		} finally {
+			pub.setRandomnessPool(null);
+			pool.close();
+		}
+	}
+	
+	/*
+	 * Compare Montgomery arithmetic with BigInteger arithmetic
+	 */
+	public void testMontgomeryContext() {
+		MontgomeryContext ctx = pub.getMontgomeryContext();
+		BigInteger n_squared = pub.getNSquared();
+		
+		for (int i=0; i<10; i++) {
+			BigInteger x = new BigInteger(2048, rng).mod(n_squared);
+			BigInteger y = new BigInteger(2048, rng).mod(n_squared);
+			BigInteger e = new BigInteger(1024, rng);
+			int[] mx = ctx.toMontgomery(x);
+			int[] my = ctx.toMontgomery(y);
+			
+			assertEquals(x, ctx.fromMontgomery(mx));
+			assertEquals(x.multiply(y).mod(n_squared), ctx.fromMontgomery(ctx.multiply(mx, my)));
+			assertEquals(x.modPow(e, n_squared), ctx.fromMontgomery(ctx.pow(mx, e)));
+		}
+		
+		assertEquals(BigInteger.ONE, ctx.fromMontgomery(ctx.one()));
+		assertEquals(BigInteger.ONE, ctx.fromMontgomery(ctx.pow(ctx.toMontgomery(BigInteger.TEN), BigInteger.ZERO)));
+	}
+	
+	/*
+	 * Run a chain of operations in Montgomery form
+	 */
+	public void testMontgomeryForm() throws BigIntegerClassNotValid, PublicKeysNotEqualException, IOException, ClassNotFoundException {
+		BigInteger expected = BigInteger.ZERO;
+		EncryptedInteger accum = new EncryptedInteger(BigInteger.ZERO, pub);
+		accum.toMontgomeryForm();
+		
+		for (int i=0; i<10; i++) {
+			BigInteger tmp = new BigInteger(64, rng);
+			accum = accum.add(new EncryptedInteger(tmp, pub));
+			accum = accum.add(BigInteger.TEN);
+			expected = expected.add(tmp).add(BigInteger.TEN);
+		}
+		accum = accum.multiply(new BigInteger("3"));
+		accum.rerandomize();
+		expected = expected.multiply(new BigInteger("3"));
+		
+		assertTrue(accum.isMontgomeryForm());
+		assertEquals(expected, accum.decrypt(priv));
+		
+		// Serialization writes the ordinary ciphertext
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new ObjectOutputStream(baos).writeObject(accum);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		EncryptedInteger copy = (EncryptedInteger) ois.readObject();
+		assertFalse(copy.isMontgomeryForm());
+		assertEquals(accum.getCipherVal(), copy.getCipherVal());
+		
+		accum.fromMontgomeryForm();
+		assertFalse(accum.add(copy).isMontgomeryForm());
+		assertEquals(expected.add(expected), accum.add(copy).decrypt(priv));
+	}
+	
+	/*
+	 * Tests that the arithmetic backend of the key is used, and that a big
+	 * integer class is adapted to a backend
+	 */
+	public void testArithmeticBackend() throws BigIntegerClassNotValid, PublicKeysNotEqualException {
+		final int[] calls = new int[1];
+		pub.setArithmeticBackend(new BigIntegerBackend() {
+			public BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+				calls[0]++;
+				return super.modPow(base, exponent, modulus);
+			}
+		});
+		
+		BigInteger tmp1 = new BigInteger(512, rng);
+		BigInteger tmp2 = new BigInteger(512, rng);
+		EncryptedInteger e_int = new EncryptedInteger(tmp1, pub);
+		e_int = e_int.multiply(BigInteger.TEN).add(new EncryptedInteger(tmp2, pub));
+		assertEquals(3, calls[0]);
+		assertEquals(tmp1.multiply(BigInteger.TEN).add(tmp2), e_int.decrypt(priv));
+		assertEquals(5, calls[0]); // CRT decryption
+		
+		EncryptedInteger other = new EncryptedInteger(tmp1, pub, CountingBigInteger.class);
+		int before = CountingBigInteger.instances;
+		other = other.multiply(BigInteger.TEN);
+		other.rerandomize();
+		assertTrue(CountingBigInteger.instances > before);
+		assertEquals(tmp1.multiply(BigInteger.TEN), other.decrypt(priv));
+		
+		// The adapter is created once per key and class
+		assertSame(pub.getArithmeticBackend(CountingBigInteger.class), 
+				pub.getArithmeticBackend(CountingBigInteger.class));
+	}
+	
+	/*
+	 * A big integer class which counts how often it is constructed
+	 */
+	public static class CountingBigInteger extends BigInteger {
+		private static final long serialVersionUID = 1L;
+		static int instances = 0;
+		
+		public CountingBigInteger(int bits, Random rng) {
+			super(bits, rng);
+			instances++;
+		}
+		
+		public CountingBigInteger(BigInteger x) {
+			super(x.toByteArray());
+			instances++;
+		}
+	}
+	
 	/*
 	 * Tests serialization of encrypted integers
 	 */
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 import thep.paillier.EncryptedInteger;
@@ -63,6 +65,71 @@ public class EncryptedPolynomialTest extends TestCase {
 		assertEquals(expected, ans.decrypt(priv));
 	}
 	
+	/*
+	 * Evaluates a random polynomial with Horner's rule, in both modes,
+	 * at points larger than N and negative points
+	 */
+	public void testEvaluateHorner() throws PublicKeysNotEqualException, BigIntegerClassNotValid {
+		Random rng = new Random();
+		BigInteger N = pub.getN();
+		BigInteger[] coefficients = new BigInteger[40];
+		for (int i=0; i < coefficients.length; i++) {
+			coefficients[i] = new BigInteger(64, rng);
+		}
+		EncryptedPolynomial poly = new EncryptedPolynomial(coefficients, pub);
+		
+		BigInteger[] points = {BigInteger.ZERO, new BigInteger("4000000007"), 
+				N.add(BigInteger.TEN), BigInteger.valueOf(-3)};
+		for (BigInteger x : points) {
+			BigInteger expected = BigInteger.ZERO;
+			for (int i=coefficients.length-1; i >= 0; i--) {
+				expected = expected.multiply(x).add(coefficients[i]).mod(N);
+			}
+			
+			EncryptedInteger first = poly.evaluate(x);
+			EncryptedInteger second = poly.evaluate(x);
+			assertEquals(expected, first.decrypt(priv));
+			assertEquals(expected, second.decrypt(priv));
+			
+			// Both results are rerandomized
+			assertFalse(first.getCipherVal().equals(second.getCipherVal()));
+		}
+	}
+	
+	/*
+	 * Evaluates at many points at once, with short and long points
+	 */
+	public void testEvaluateBatch() throws PublicKeysNotEqualException, BigIntegerClassNotValid {
+		Random rng = new Random();
+		BigInteger N = pub.getN();
+		BigInteger[] coefficients = new BigInteger[12];
+		for (int i=0; i < coefficients.length; i++) {
+			coefficients[i] = new BigInteger(64, rng);
+		}
+		EncryptedPolynomial poly = new EncryptedPolynomial(coefficients, pub);
+		
+		BigInteger[] points = {BigInteger.ONE, new BigInteger(900, rng), BigInteger.valueOf(-7), 
+				new BigInteger(1000, rng), BigInteger.valueOf(12345), new BigInteger(1000, rng)};
+		EncryptedInteger[] results = poly.evaluateAll(points);
+		EncryptedInteger[] plain_results = poly.evaluateAll(points, false, ForkJoinPool.commonPool());
+		assertEquals(points.length, results.length);
+		
+		for (int j=0; j < points.length; j++) {
+			BigInteger expected = BigInteger.ZERO;
+			for (int i=coefficients.length-1; i >= 0; i--) {
+				expected = expected.multiply(points[j]).add(coefficients[i]).mod(N);
+			}
+			
+			assertEquals(expected, results[j].decrypt(priv));
+			assertEquals(expected, plain_results[j].decrypt(priv));
+			assertFalse(results[j].getCipherVal().equals(plain_results[j].getCipherVal()));
+		}
+		
+		// Without rerandomization the results are deterministic
+		EncryptedInteger[] again = poly.evaluateAll(points, false, ForkJoinPool.commonPool());
+		assertEquals(plain_results[3].getCipherVal(), again[3].getCipherVal());
+	}
+	
 	public void testAdd() throws PublicKeysNotEqualException, SizesNotEqualException, BigIntegerClassNotValid {
 		// Try sum of identity and square
 		EncryptedPolynomial ans = identity.add(square);	// should yield f(x) = x + x^2 [0, 1, 1]
@@ -127,6 +194,37 @@ public class EncryptedPolynomialTest extends TestCase {
 		}
 	}
 	
+	public void testMultiplyDifferentDegrees() throws SizesNotEqualException, PublicKeysNotEqualException, BigIntegerClassNotValid {
+		Random rng = new Random(7);
+		BigInteger N = pub.getN();
+		int[][] degrees = {{3, 1}, {2, 5}, {12, 12}, {9, 20}};
+		
+		for (int[] d : degrees) {
+			BigInteger[] enc = new BigInteger[d[0]];
+			BigInteger[] plain = new BigInteger[d[1]];
+			for (int i=0; i < enc.length; i++) {
+				enc[i] = BigInteger.valueOf(rng.nextInt(1000));
+			}
+			// Include negative and full length coefficients
+			for (int j=0; j < plain.length; j++) {
+				plain[j] = j % 3 == 0 ? BigInteger.valueOf(-rng.nextInt(1000)) : new BigInteger(1000, rng);
+			}
+			
+			EncryptedPolynomial ans = new EncryptedPolynomial(enc, pub).multiply(plain);
+			assertEquals(enc.length + plain.length - 1, ans.getCoefficients().length);
+			
+			for (int l=0; l < ans.getCoefficients().length; l++) {
+				BigInteger expected = BigInteger.ZERO;
+				for (int i=0; i < enc.length; i++) {
+					if (l-i >= 0 && l-i < plain.length) {
+						expected = expected.add(enc[i].multiply(plain[l-i]));
+					}
+				}
+				assertEquals(expected.mod(N), ans.getCoefficients()[l].decrypt(priv));
+			}
+		}
+	}
+	
 	public void testSerialization() throws IOException, ClassNotFoundException, BigIntegerClassNotValid {
 		// Save the integer to an output stream
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
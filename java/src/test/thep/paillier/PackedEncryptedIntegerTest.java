@@ -0,0 +1,144 @@
+package test.thep.paillier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import thep.paillier.PackedEncryptedInteger;
+import thep.paillier.PackingScheme;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+import thep.paillier.exceptions.SizesNotEqualException;
+import thep.paillier.exceptions.SlotOverflowException;
+
+public class PackedEncryptedIntegerTest extends TestCase {
+	private PrivateKey priv;
+	private PublicKey pub;
+	private Random rng;
+	
+	public PackedEncryptedIntegerTest(String name) {
+		super(name);
+	}
+	
+	protected void setUp() {
+		priv = new PrivateKey(1024);
+		pub = priv.getPublicKey();
+		rng = new Random();
+	}
+	
+	/*
+	 * Checks the number of slots and that packing is undone by unpacking
+	 */
+	public void testScheme() {
+		PackingScheme scheme = new PackingScheme(pub, 32, 16);
+		assertEquals(1023 / 48, scheme.getSlots());
+		
+		BigInteger[] values = new BigInteger[scheme.getSlots()];
+		for (int i=0; i<values.length; i++) {
+			values[i] = new BigInteger(32, rng);
+		}
+		assertTrue(scheme.pack(values).compareTo(pub.getN()) < 0);
+		
+		BigInteger[] unpacked = scheme.unpack(scheme.pack(values));
+		for (int i=0; i<values.length; i++) {
+			assertEquals(values[i], unpacked[i]);
+		}
+		
+		try {
+			scheme.pack(new long[] {1L << 32});
+			fail("A value larger than a slot was packed");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		try {
+			new PackingScheme(pub, 64, 0, 16);
+			fail("More slots than fit in the plaintext were allowed");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	/*
+	 * Adds packed integers and constants, and multiplies by a constant
+	 */
+	public void testArithmetic() throws BigIntegerClassNotValid, PublicKeysNotEqualException, 
+			SizesNotEqualException, SlotOverflowException {
+		PackingScheme scheme = new PackingScheme(pub, 32, 8, 4);
+		long[] a = {1, 2, 0xffffffffL, 4};
+		long[] b = {10, 0, 0xffffffffL, 40};
+		
+		PackedEncryptedInteger p = new PackedEncryptedInteger(a, scheme, pub);
+		PackedEncryptedInteger q = new PackedEncryptedInteger(b, scheme, pub);
+		PackedEncryptedInteger sum = p.add(q).add(new BigInteger[] {BigInteger.ONE});
+		sum.rerandomize();
+		BigInteger[] result = sum.multiply(BigInteger.valueOf(3)).decrypt(priv);
+		
+		for (int i=0; i<a.length; i++) {
+			long extra = i == 0 ? 1 : 0;
+			assertEquals(BigInteger.valueOf(a[i]).add(BigInteger.valueOf(b[i])).add(BigInteger.valueOf(extra))
+					.multiply(BigInteger.valueOf(3)), result[i]);
+		}
+	}
+	
+	/*
+	 * Checks the overflow bookkeeping
+	 */
+	public void testOverflow() throws BigIntegerClassNotValid, PublicKeysNotEqualException, 
+			SizesNotEqualException, SlotOverflowException {
+		PackingScheme scheme = new PackingScheme(pub, 8, 2);
+		PackedEncryptedInteger p = new PackedEncryptedInteger(new long[] {255, 255}, scheme, pub);
+		PackedEncryptedInteger fresh = new PackedEncryptedInteger(new long[] {255}, scheme, pub);
+		
+		// 1023 / 255 = 4 values fit, so 3 more can be added
+		assertEquals(3, p.getRemainingAdditions());
+		for (int i=0; i<3; i++) {
+			p = p.add(fresh);
+		}
+		assertEquals(0, p.getRemainingAdditions());
+		assertEquals(BigInteger.valueOf(1020), p.decrypt(priv)[0]);
+		assertEquals(BigInteger.valueOf(255), p.decrypt(priv)[1]);
+		
+		try {
+			p.add(fresh);
+			fail("An addition which could overflow was allowed");
+		} catch (SlotOverflowException e) {
+		}
+		
+		try {
+			fresh.multiply(BigInteger.valueOf(5));
+			fail("A multiplication which could overflow was allowed");
+		} catch (SlotOverflowException e) {
+		}
+		
+		try {
+			p.add(new PackedEncryptedInteger(new long[] {1}, new PackingScheme(pub, 8, 3), pub));
+			fail("Integers packed differently were added");
+		} catch (SizesNotEqualException e) {
+		}
+	}
+	
+	/*
+	 * Tests serialization of packed integers
+	 */
+	public void testSerializable() throws IOException, ClassNotFoundException, BigIntegerClassNotValid {
+		PackingScheme scheme = new PackingScheme(pub, 16, 16);
+		PackedEncryptedInteger p = new PackedEncryptedInteger(new long[] {7, 8, 9}, scheme, pub);
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(p);
+		
+		ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+		ObjectInputStream ois = new ObjectInputStream(bais);
+		PackedEncryptedInteger q = (PackedEncryptedInteger)ois.readObject();
+		
+		assertEquals(p.getRemainingAdditions(), q.getRemainingAdditions());
+		assertEquals(BigInteger.valueOf(9), q.decrypt(priv)[2]);
+	}
+}
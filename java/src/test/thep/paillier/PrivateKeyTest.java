@@ -0,0 +1,182 @@
+package test.thep.paillier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+import thep.paillier.EncryptedInteger;
+import thep.paillier.KeyGenerator;
+import thep.paillier.KeyReader;
+import thep.paillier.KeyWriter;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+
+public class PrivateKeyTest extends TestCase {
+	
+	public PrivateKeyTest(String name) {
+		super(name);
+	}
+	
+	/*
+	 * Generate a key in parallel and make sure it works
+	 */
+	public void testGenerate() throws InterruptedException, TimeoutException, BigIntegerClassNotValid {
+		PrivateKey priv = PrivateKey.generate(1024, 1, TimeUnit.MINUTES);
+		assertEquals(1024, priv.getPublicKey().getN().bitLength());
+		
+		EncryptedInteger e_int = new EncryptedInteger(BigInteger.TEN, priv.getPublicKey());
+		assertEquals(BigInteger.TEN, e_int.decrypt(priv));
+	}
+	
+	/*
+	 * Generate a key on a single thread
+	 */
+	public void testGenerateSingleThread() throws InterruptedException, BigIntegerClassNotValid {
+		PrivateKey priv = new KeyGenerator(512, 1).generate();
+		assertEquals(512, priv.getPublicKey().getN().bitLength());
+		
+		EncryptedInteger e_int = new EncryptedInteger(BigInteger.ONE, priv);
+		assertEquals(BigInteger.ONE, e_int.decrypt(priv));
+	}
+	
+	/*
+	 * Make sure key generation gives up after the timeout
+	 */
+	public void testTimeout() throws InterruptedException {
+		try {
+			new KeyGenerator(8192).generate(1, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+	}
+	
+	/*
+	 * Make sure key generation can be cancelled
+	 */
+	public void testCancel() {
+		Future<PrivateKey> future = new KeyGenerator(8192).start();
+		assertTrue(future.cancel(true));
+		assertTrue(future.isCancelled());
+	}
+	
+	/*
+	 * Write several keys to a key store file and load them back through a
+	 * memory mapping
+	 */
+	public void testKeyStore() throws IOException, BigIntegerClassNotValid {
+		PrivateKey[] keys = {new PrivateKey(512), new PrivateKey(1024)};
+		File file = File.createTempFile("thep", ".keys");
+		file.deleteOnExit();
+		
+		KeyWriter writer = new KeyWriter(new FileOutputStream(file));
+		for (PrivateKey key : keys) {
+			writer.write(key);
+		}
+		writer.write(keys[0].getPublicKey());
+		writer.close();
+		
+		KeyReader reader = KeyReader.open(file);
+		for (PrivateKey key : keys) {
+			assertTrue(reader.isPrivateKeyNext());
+			PrivateKey loaded = reader.readPrivateKey();
+			assertEquals(key.getPublicKey().getN(), loaded.getPublicKey().getN());
+			assertEquals(key.getPublicKey().getBits(), loaded.getPublicKey().getBits());
+			assertEquals(key.getLambda(), loaded.getLambda());
+			
+			// Encrypt with the original key and decrypt with the loaded one
+			EncryptedInteger e_int = new EncryptedInteger(BigInteger.TEN, key.getPublicKey());
+			assertEquals(BigInteger.TEN, e_int.decrypt(loaded));
+			e_int = new EncryptedInteger(BigInteger.ONE, loaded);
+			assertEquals(BigInteger.ONE, e_int.decrypt(key));
+		}
+		
+		assertFalse(reader.isPrivateKeyNext());
+		try {
+			reader.readPrivateKey();
+			fail();
+		} catch (IOException e) {
+		}
+		
+		// Private key records can also be read as public keys
+		reader = KeyReader.open(file);
+		List<PublicKey> pubs = reader.readPublicKeys();
+		assertEquals(3, pubs.size());
+		assertTrue(pubs.get(2).equals(keys[0].getPublicKey()));
+		assertFalse(reader.hasNext());
+		assertFalse(reader.isPrivateKeyNext());
+	}
+	
+	/*
+	 * Make sure invalid key data is rejected
+	 */
+	public void testBadKeyData() throws IOException {
+		try {
+			new KeyReader(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 0, 1, 0, 0}));
+			fail();
+		} catch (IOException e) {
+		}
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		KeyWriter writer = new KeyWriter(baos);
+		writer.write(new PrivateKey(512));
+		writer.close();
+		
+		// Cut the last key record short
+		byte[] bytes = baos.toByteArray();
+		KeyReader reader = new KeyReader(ByteBuffer.wrap(bytes, 0, bytes.length-10));
+		try {
+			reader.readPrivateKey();
+			fail();
+		} catch (IOException e) {
+		}
+		
+		// Change the last byte of each stored value in turn: n, p, q, hp, hq,
+		// q_inverse, q_squared_inverse and mu
+		int offset = 17;
+		for (int field=0; field < 8; field++) {
+			int length = ByteBuffer.wrap(bytes).getInt(offset);
+			byte[] corrupt = bytes.clone();
+			corrupt[offset + 4 + length - 1] ^= 2;
+			try {
+				new KeyReader(ByteBuffer.wrap(corrupt)).readPrivateKey();
+				fail("field " + field);
+			} catch (IOException e) {
+			}
+			offset += 4 + length;
+		}
+		assertEquals(bytes.length, offset);
+		
+		// An extra byte at the end of the record
+		byte[] corrupt = Arrays.copyOf(bytes, bytes.length + 1);
+		ByteBuffer.wrap(corrupt).putInt(9, ByteBuffer.wrap(bytes).getInt(9) + 1);
+		try {
+			new KeyReader(ByteBuffer.wrap(corrupt)).readPrivateKey();
+			fail();
+		} catch (IOException e) {
+		}
+		
+		// Bit lengths which do not match the modulus
+		for (int bits : new int[] {1024, 514, 510}) {
+			corrupt = bytes.clone();
+			ByteBuffer.wrap(corrupt).putInt(13, bits);
+			try {
+				new KeyReader(ByteBuffer.wrap(corrupt)).readPublicKey();
+				fail("bits " + bits);
+			} catch (IOException e) {
+			}
+		}
+		
+		// The unchanged record is still accepted
+		assertEquals(512, new KeyReader(ByteBuffer.wrap(bytes)).readPrivateKey().getPublicKey().getBits());
+	}
+}
@@ -0,0 +1,91 @@
+package test.thep.paillier.protocols;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import thep.paillier.exceptions.SizesNotEqualException;
+import thep.paillier.protocols.DGKComparison;
+import thep.paillier.protocols.DGKPrivateKey;
+import thep.paillier.protocols.DGKPublicKey;
+import thep.paillier.protocols.GTSCOT;
+
+public class DGKComparisonTest extends TestCase {
+	private DGKPrivateKey priv;
+	private DGKPublicKey pub;
+	private Random rng;
+	
+	public DGKComparisonTest(String name) {
+		super(name);
+	}
+	
+	protected void setUp() {
+		priv = new DGKPrivateKey(1024, 32);
+		pub = priv.getPublicKey();
+		rng = new Random();
+	}
+	
+	public void testEncryption() {
+		BigInteger u = pub.getU();
+		BigInteger a = BigInteger.valueOf(5);
+		BigInteger b = BigInteger.valueOf(7);
+		BigInteger ca = pub.encrypt(a, rng);
+		BigInteger cb = pub.encrypt(b, rng);
+		
+		assertEquals(a, priv.decrypt(ca));
+		assertEquals(a.add(b).mod(u), priv.decrypt(ca.multiply(cb).mod(pub.getN())));
+		assertEquals(a.multiply(b).mod(u), priv.decrypt(ca.modPow(b, pub.getN())));
+		
+		assertTrue(priv.isZero(pub.encrypt(BigInteger.ZERO, rng)));
+		assertTrue(priv.isZero(pub.encrypt(u, rng)));
+		assertFalse(priv.isZero(ca));
+	}
+	
+	public void testCompare() throws SizesNotEqualException {
+		BigInteger[][] pairs = {
+				{BigInteger.valueOf(34), BigInteger.valueOf(21)},
+				{BigInteger.valueOf(12), BigInteger.valueOf(52)},
+				{BigInteger.valueOf(13), BigInteger.valueOf(13)},
+				{BigInteger.ZERO, BigInteger.ONE},
+				{BigInteger.ONE, BigInteger.ZERO},
+				{new BigInteger(32, rng), new BigInteger(32, rng)}};
+		
+		for (BigInteger[] pair : pairs) {
+			BigInteger[] x_vector = DGKComparison.createEncryptedVector(pub, pair[0]);
+			BigInteger[] y_vector = GTSCOT.createVector(pair[1]);
+			
+			BigInteger[] c = DGKComparison.sender(pub, x_vector, y_vector);
+			assertEquals(pair[0].compareTo(pair[1]) < 0, DGKComparison.receiver(priv, c));
+		}
+	}
+	
+	public void testBatch() throws SizesNotEqualException {
+		BigInteger x = BigInteger.valueOf(1000);
+		BigInteger[] ys = {BigInteger.ONE, BigInteger.valueOf(999), BigInteger.valueOf(1000),
+				BigInteger.valueOf(1001), BigInteger.valueOf(123456789), BigInteger.valueOf(12)};
+		
+		BigInteger[] x_vector = DGKComparison.createEncryptedVector(pub, x);
+		BigInteger[][] y_vectors = new BigInteger[ys.length][];
+		for (int j=0; j<ys.length; j++) {
+			y_vectors[j] = GTSCOT.createVector(ys[j]);
+		}
+		
+		BigInteger[][] c = DGKComparison.sender(pub, x_vector, y_vectors);
+		boolean[] results = DGKComparison.receiver(priv, c);
+		
+		for (int j=0; j<ys.length; j++) {
+			assertEquals(x.compareTo(ys[j]) < 0, results[j]);
+		}
+	}
+	
+	public void testTooLong() {
+		BigInteger[] x_vector = DGKComparison.createEncryptedVector(pub, BigInteger.ONE);
+		BigInteger[] y_vector = GTSCOT.createVector(BigInteger.ONE.shiftLeft(40));
+		
+		try {
+			DGKComparison.sender(pub, x_vector, y_vector);
+			fail("Expected SizesNotEqualException");
+		} catch (SizesNotEqualException e) {
+		}
+	}
+}
@@ -104,6 +104,44 @@ public class GTSCOTTest extends TestCase {
 		assertNull(s);
 	}
 	
+	/*
+	 * Test one encrypted input against many plaintext inputs of different
+	 * lengths
+	 */
+	public void testBatchSender() throws PublicKeysNotEqualException, BigIntegerClassNotValid {
+		BigInteger x = new BigInteger("1000");
+		BigInteger[] ys = {BigInteger.ONE, new BigInteger("999"), new BigInteger("1000"), 
+				new BigInteger("1001"), new BigInteger("123456789"), new BigInteger("12")};
+		BigInteger max = new BigInteger("2").pow(901);
+		BigInteger s0 = new BigInteger(900, rng).mod(pub.getN());
+		BigInteger s1 = new BigInteger(900, rng).mod(pub.getN());
+		
+		EncryptedInteger[] x_vector = GTSCOT.createEncryptedVector(pub, x);
+		BigInteger[][] y_vectors = new BigInteger[ys.length][];
+		for (int j=0; j<ys.length; j++) {
+			y_vectors[j] = GTSCOT.createVector(ys[j]);
+		}
+		
+		EncryptedInteger[][] mu = GTSCOT.sender(pub, x_vector, y_vectors, s0, s1);
+		assertEquals(ys.length, mu.length);
+		
+		BigInteger[] results = GTSCOT.receiver(priv, mu, max);
+		assertEquals(ys.length, results.length);
+		
+		for (int j=0; j<ys.length; j++) {
+			BigInteger s = GTSCOT.receiver(priv, mu[j], max);
+			assertEquals(s, results[j]);
+			
+			int cmp = x.compareTo(ys[j]);
+			if (cmp > 0)
+				assertEquals(s1, s);
+			else if (cmp < 0)
+				assertEquals(s0, s);
+			else
+				assertNull(s);
+		}
+	}
+	
 	/*
 	 * Test serialization of encrypted integer array
 	 */
@@ -1,6 +1,14 @@
 package test.thep.paillier.protocols;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 import thep.paillier.EncryptedInteger;
@@ -9,6 +17,11 @@ import thep.paillier.PublicKey;
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 import thep.paillier.exceptions.PublicKeysNotEqualException;
 import thep.paillier.exceptions.ZKSetMembershipException;
+import thep.paillier.protocols.ZKSetMembershipBatchVerifier;
+import thep.paillier.protocols.ZKSetMembershipContext;
+import thep.paillier.protocols.ZKSetMembershipProof;
+import thep.paillier.protocols.ZKSetMembershipProofReader;
+import thep.paillier.protocols.ZKSetMembershipProofWriter;
 import thep.paillier.protocols.ZKSetMembershipProver;
 import thep.paillier.protocols.ZKSetMembershipVerifier;
 
@@ -280,4 +293,299 @@ public class ZKSetMembershipTest extends TestCase {
 			assertTrue(verifier.checkResponseNonInteractive(eVals, vVals, e));
 		}
 	}
+	
+	public void testZKSMContext() throws ZKSetMembershipException, BigIntegerClassNotValid {
+		BigInteger[] theSet = {new BigInteger("0"), new BigInteger("1")};
+		BigInteger[] sameSet = {new BigInteger("0"), new BigInteger("1")};
+		
+		ZKSetMembershipContext context = ZKSetMembershipContext.get(pub, theSet);
+		assertSame(context, ZKSetMembershipContext.get(pub, sameSet));
+		
+		EncryptedInteger c = new EncryptedInteger(pub);
+		BigInteger r = c.set(BigInteger.ONE);
+		
+		for (int i=0; i<5; i++) {
+			ZKSetMembershipProver prover = new ZKSetMembershipProver(pub, theSet, 1, c);
+			BigInteger[] uVals = prover.genCommitments();
+			
+			ZKSetMembershipVerifier verifier = new ZKSetMembershipVerifier(context, c, uVals);
+			BigInteger e = verifier.genChallenge(new BigInteger("128"));
+			
+			prover.computeResponse(e, r);
+			assertTrue(verifier.checkResponse(prover.getEs(), prover.getVs()));
+		}
+	}
+	
+	public void testZKSMContextEviction() {
+		try {
+			ZKSetMembershipContext.setCacheSize(2);
+			BigInteger[] set0 = {BigInteger.ZERO};
+			BigInteger[] set1 = {BigInteger.ONE};
+			BigInteger[] set2 = {BigInteger.TEN};
+			
+			ZKSetMembershipContext context0 = ZKSetMembershipContext.get(pub, set0);
+			ZKSetMembershipContext context1 = ZKSetMembershipContext.get(pub, set1);
+			assertSame(context0, ZKSetMembershipContext.get(pub, set0));
+			
+			// set1 is now the least recently used
+			ZKSetMembershipContext.get(pub, set2);
+			assertEquals(2, ZKSetMembershipContext.getCachedCount());
+			assertSame(context0, ZKSetMembershipContext.get(pub, set0));
+			assertNotSame(context1, ZKSetMembershipContext.get(pub, set1));
+		} finally {
+			ZKSetMembershipContext.setCacheSize(ZKSetMembershipContext.DEFAULT_CACHE_SIZE);
+		}
+	}
+	
+	private ZKSetMembershipProof createProof(BigInteger[] theSet, int msgIndex, BigInteger m) 
+			throws ZKSetMembershipException, BigIntegerClassNotValid {
+		EncryptedInteger c = new EncryptedInteger(pub);
+		BigInteger r = c.set(m);
+		
+		ZKSetMembershipProver prover = new ZKSetMembershipProver(pub, theSet, msgIndex, c);
+		BigInteger[] uVals = prover.genCommitments();
+		BigInteger e = prover.genChallengeFromCommitments(uVals);
+		prover.computeResponse(e, r);
+		
+		return new ZKSetMembershipProof(c, uVals, e, prover.getEs(), prover.getVs());
+	}
+	
+	public void testZKSMBatchTrue() throws ZKSetMembershipException, BigIntegerClassNotValid {
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE};
+		ZKSetMembershipProof[] proofs = new ZKSetMembershipProof[6];
+		for (int j=0; j<proofs.length; j++) {
+			proofs[j] = this.createProof(theSet, j % 2, BigInteger.valueOf(j % 2));
+		}
+		
+		ZKSetMembershipBatchVerifier verifier = new ZKSetMembershipBatchVerifier(ZKSetMembershipContext.get(pub, theSet));
+		assertTrue(verifier.verifyAll(proofs));
+		
+		for (boolean result : verifier.verify(proofs)) {
+			assertTrue(result);
+		}
+	}
+	
+	public void testZKSMBatchFindsInvalid() throws ZKSetMembershipException, BigIntegerClassNotValid {
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE, BigInteger.TEN};
+		ZKSetMembershipProof[] proofs = new ZKSetMembershipProof[7];
+		for (int j=0; j<proofs.length; j++) {
+			proofs[j] = this.createProof(theSet, j % 3, theSet[j % 3]);
+		}
+		
+		// a proof attached to a different cipher text
+		EncryptedInteger other = new EncryptedInteger(BigInteger.ONE, pub);
+		proofs[2] = new ZKSetMembershipProof(other, proofs[2].getUs(), proofs[2].getChallenge(), 
+				proofs[2].getEs(), proofs[2].getVs());
+		
+		// a proof with a modified response
+		BigInteger[] vVals = proofs[5].getVs();
+		vVals[0] = vVals[0].add(BigInteger.ONE);
+		proofs[5] = new ZKSetMembershipProof(proofs[5].getCipherVal(), proofs[5].getUs(), 
+				proofs[5].getChallenge(), proofs[5].getEs(), vVals);
+		
+		// a proof with the wrong challenge
+		proofs[6] = new ZKSetMembershipProof(proofs[6].getCipherVal(), proofs[6].getUs(), 
+				proofs[6].getChallenge().add(BigInteger.ONE), proofs[6].getEs(), proofs[6].getVs());
+		
+		ZKSetMembershipBatchVerifier verifier = new ZKSetMembershipBatchVerifier(ZKSetMembershipContext.get(pub, theSet));
+		assertFalse(verifier.verifyAll(proofs));
+		
+		boolean[] results = verifier.verify(proofs);
+		for (int j=0; j<proofs.length; j++) {
+			assertEquals(j != 2 && j != 5 && j != 6, results[j]);
+		}
+	}
+	
+	public void testZKSMBatchSignFlip() throws ZKSetMembershipException, BigIntegerClassNotValid {
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE};
+		ZKSetMembershipContext context = ZKSetMembershipContext.get(pub, theSet);
+		ZKSetMembershipProof[] proofs = new ZKSetMembershipProof[8];
+		for (int j=0; j<proofs.length; j++) {
+			proofs[j] = this.createProof(theSet, j % 2, BigInteger.valueOf(j % 2));
+		}
+		
+		// N - v negates v^N mod N Squared, which the exact verifier rejects
+		BigInteger[] vVals = proofs[3].getVs();
+		vVals[0] = pub.getN().subtract(vVals[0]);
+		proofs[3] = new ZKSetMembershipProof(proofs[3].getCipherVal(), proofs[3].getUs(), 
+				proofs[3].getChallenge(), proofs[3].getEs(), vVals);
+		ZKSetMembershipVerifier exact = new ZKSetMembershipVerifier(context, proofs[3].getCipherVal(), proofs[3].getUs());
+		assertFalse(exact.checkResponseNonInteractive(proofs[3].getEs(), proofs[3].getVs(), proofs[3].getChallenge()));
+		
+		// a batch of several proofs accepts proofs up to sign, every time
+		ZKSetMembershipBatchVerifier verifier = new ZKSetMembershipBatchVerifier(context);
+		for (int run=0; run<10; run++) {
+			assertTrue(verifier.verifyAll(proofs));
+			for (boolean result : verifier.verify(proofs)) {
+				assertTrue(result);
+			}
+		}
+		
+		// on its own the proof is checked exactly
+		ZKSetMembershipProof[] single = {proofs[3]};
+		assertFalse(verifier.verifyAll(single));
+		assertFalse(verifier.verify(single)[0]);
+		
+		// with an invalid proof as well, only that proof is rejected
+		vVals = proofs[6].getVs();
+		vVals[1] = vVals[1].add(BigInteger.ONE);
+		proofs[6] = new ZKSetMembershipProof(proofs[6].getCipherVal(), proofs[6].getUs(), 
+				proofs[6].getChallenge(), proofs[6].getEs(), vVals);
+		for (int run=0; run<10; run++) {
+			assertFalse(verifier.verifyAll(proofs));
+			boolean[] results = verifier.verify(proofs);
+			for (int j=0; j<proofs.length; j++) {
+				assertEquals(j != 6, results[j]);
+			}
+		}
+	}
+	
+	public void testZKSMProve() throws ZKSetMembershipException, BigIntegerClassNotValid {
+		BigInteger[] theSet = new BigInteger[20];
+		for (int i=0; i<theSet.length; i++) {
+			theSet[i] = BigInteger.valueOf(3 * i);
+		}
+		ZKSetMembershipContext context = ZKSetMembershipContext.get(pub, theSet);
+		
+		ZKSetMembershipProof[] proofs = new ZKSetMembershipProof[4];
+		for (int j=0; j<proofs.length; j++) {
+			int msgIndex = 5 * j;
+			EncryptedInteger c = new EncryptedInteger(pub);
+			BigInteger r = c.set(theSet[msgIndex]);
+			proofs[j] = ZKSetMembershipProver.prove(context, msgIndex, c, r);
+			
+			ZKSetMembershipVerifier verifier = new ZKSetMembershipVerifier(context, c, proofs[j].getUs());
+			assertTrue(verifier.checkResponseNonInteractive(proofs[j].getEs(), proofs[j].getVs(), 
+					proofs[j].getChallenge()));
+		}
+		
+		assertTrue(new ZKSetMembershipBatchVerifier(context).verifyAll(proofs));
+	}
+	
+	public void testZKSMProveConcurrently() throws Exception {
+		final BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE};
+		final ZKSetMembershipContext context = ZKSetMembershipContext.get(pub, theSet);
+		final ZKSetMembershipProof[] proofs = new ZKSetMembershipProof[8];
+		final Exception[] errors = new Exception[proofs.length];
+		Thread[] threads = new Thread[proofs.length];
+		
+		for (int j=0; j<threads.length; j++) {
+			final int index = j;
+			threads[j] = new Thread() {
+				public void run() {
+					try {
+						EncryptedInteger c = new EncryptedInteger(pub);
+						BigInteger r = c.set(theSet[index % 2]);
+						proofs[index] = ZKSetMembershipProver.prove(context, index % 2, c, r);
+					} catch (Exception e) {
+						errors[index] = e;
+					}
+				}
+			};
+			threads[j].start();
+		}
+		
+		for (int j=0; j<threads.length; j++) {
+			threads[j].join();
+			if (errors[j] != null) {
+				throw errors[j];
+			}
+		}
+		
+		for (boolean result : new ZKSetMembershipBatchVerifier(context).verify(proofs)) {
+			assertTrue(result);
+		}
+	}
+	
+	public void testZKSMProveIndexOutOfRange() throws BigIntegerClassNotValid {
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE};
+		EncryptedInteger c = new EncryptedInteger(pub);
+		BigInteger r = c.set(BigInteger.ONE);
+		
+		try {
+			ZKSetMembershipProver.prove(ZKSetMembershipContext.get(pub, theSet), 2, c, r);
+			fail("Expected ZKSetMembershipException");
+		} catch (ZKSetMembershipException e) {
+		}
+	}
+	
+	public void testZKSMProofRoundTrip() throws ZKSetMembershipException, BigIntegerClassNotValid, IOException {
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE, BigInteger.TEN};
+		ZKSetMembershipProof[] proofs = new ZKSetMembershipProof[3];
+		for (int j=0; j<proofs.length; j++) {
+			proofs[j] = this.createProof(theSet, j, theSet[j]);
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZKSetMembershipProofWriter writer = new ZKSetMembershipProofWriter(bytes);
+		for (ZKSetMembershipProof proof : proofs) {
+			writer.write(proof);
+		}
+		writer.close();
+		
+		ZKSetMembershipProofReader reader = new ZKSetMembershipProofReader(
+				new ByteArrayInputStream(bytes.toByteArray()), pub);
+		for (ZKSetMembershipProof proof : proofs) {
+			ZKSetMembershipProof tmp = reader.read();
+			assertEquals(proof.getCipherVal().getCipherVal(), tmp.getCipherVal().getCipherVal());
+			assertEquals(proof.getChallenge(), tmp.getChallenge());
+			assertTrue(Arrays.equals(proof.getUs(), tmp.getUs()));
+			assertTrue(Arrays.equals(proof.getEs(), tmp.getEs()));
+			assertTrue(Arrays.equals(proof.getVs(), tmp.getVs()));
+		}
+		assertNull(reader.read());
+		assertEquals(proofs.length, reader.getCount());
+	}
+	
+	public void testZKSMStreamVerification() throws ZKSetMembershipException, BigIntegerClassNotValid, IOException {
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE};
+		File file = File.createTempFile("proofs", ".zksp");
+		file.deleteOnExit();
+		
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		ZKSetMembershipProofWriter writer = new ZKSetMembershipProofWriter(channel);
+		for (int j=0; j<7; j++) {
+			ZKSetMembershipProof proof = this.createProof(theSet, j % 2, BigInteger.valueOf(j % 2));
+			if (j == 4) {
+				// attach the proof to a different cipher text
+				proof = new ZKSetMembershipProof(new EncryptedInteger(BigInteger.ONE, pub), proof.getUs(), 
+						proof.getChallenge(), proof.getEs(), proof.getVs());
+			}
+			writer.write(proof);
+		}
+		writer.close();
+		
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ZKSetMembershipProofReader reader = new ZKSetMembershipProofReader(channel, pub);
+		ZKSetMembershipBatchVerifier verifier = new ZKSetMembershipBatchVerifier(ZKSetMembershipContext.get(pub, theSet));
+		List<Long> invalid = verifier.verify(reader, 3);
+		reader.close();
+		
+		assertEquals(7, reader.getCount());
+		assertEquals(1, invalid.size());
+		assertEquals(4L, invalid.get(0).longValue());
+	}
+	
+	public void testZKSMProofReaderInvalid() throws ZKSetMembershipException, BigIntegerClassNotValid, IOException {
+		try {
+			new ZKSetMembershipProofReader(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 0, 1, 0, 0}), pub);
+			fail("Expected IOException");
+		} catch (IOException e) {
+		}
+		
+		BigInteger[] theSet = {BigInteger.ZERO, BigInteger.ONE};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZKSetMembershipProofWriter writer = new ZKSetMembershipProofWriter(bytes);
+		writer.write(this.createProof(theSet, 1, BigInteger.ONE));
+		writer.close();
+		
+		// drop the end of the record
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 10);
+		ZKSetMembershipProofReader reader = new ZKSetMembershipProofReader(new ByteArrayInputStream(truncated), pub);
+		try {
+			reader.read();
+			fail("Expected IOException");
+		} catch (IOException e) {
+		}
+	}
 }
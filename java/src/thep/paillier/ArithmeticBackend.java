@@ -0,0 +1,56 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * The big integer arithmetic used for homomorphic operations. A backend is
+ * selected once, normally per public key with
+ * PublicKey.setArithmeticBackend(), so no lookups happen per operation.
+ * Implementations must be safe to use from several threads.
+ *
+ * @see BigIntegerBackend
+ * @see BigIntegerClassBackend
+ */
+public interface ArithmeticBackend {
+	/**
+	 * Returns a uniformly random non-negative integer of at most the given
+	 * number of bits
+	 * 
+	 * @param bits the maximum number of bits
+	 * @param rng the source of randomness
+	 * @return the random integer
+	 */
+	BigInteger random(int bits, Random rng);
+	
+	/**
+	 * Computes base^exponent mod modulus
+	 * 
+	 * @param base the base
+	 * @param exponent the exponent, which may be negative if the base is
+	 * invertible
+	 * @param modulus the modulus
+	 * @return base^exponent mod modulus
+	 */
+	BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus);
+	
+	/**
+	 * Computes a*b mod modulus
+	 * 
+	 * @param a the first factor
+	 * @param b the second factor
+	 * @param modulus the modulus
+	 * @return a*b mod modulus
+	 */
+	BigInteger modMultiply(BigInteger a, BigInteger b, BigInteger modulus);
+	
+	/**
+	 * Computes a^-1 mod modulus
+	 * 
+	 * @param a the value to invert
+	 * @param modulus the modulus
+	 * @return a^-1 mod modulus
+	 * @throws ArithmeticException if a is not invertible
+	 */
+	BigInteger modInverse(BigInteger a, BigInteger modulus);
+}
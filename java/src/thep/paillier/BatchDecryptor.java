@@ -0,0 +1,277 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Decrypts many ciphertexts at once, spreading the work over the threads
+ * of a ForkJoin pool. The plaintexts are written into arrays supplied by
+ * the caller.
+ *
+ * Plaintexts can be decoded as signed values: a plaintext larger than n/2
+ * is taken to be the negative value plaintext - n, which is how negative
+ * numbers are represented after for example multiplying by -1.
+ */
+public class BatchDecryptor {
+	// arrays shorter than this are decrypted on one thread
+	private static final int THRESHOLD = 16;
+	
+	private PrivateKey priv;
+	private BigInteger n;
+	private BigInteger half_n;
+	private ForkJoinPool pool;
+	
+	/**
+	 * Constructs a decryptor using the common ForkJoin pool
+	 * 
+	 * @param priv the private key to decrypt with
+	 */
+	public BatchDecryptor(PrivateKey priv) {
+		this(priv, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Constructs a decryptor using the given ForkJoin pool
+	 * 
+	 * @param priv the private key to decrypt with
+	 * @param pool the pool to run the decryptions in
+	 */
+	public BatchDecryptor(PrivateKey priv, ForkJoinPool pool) {
+		this.priv = priv;
+		this.n = priv.getPublicKey().getN();
+		this.half_n = this.n.shiftRight(1);
+		this.pool = pool;
+	}
+	
+	/**
+	 * Decrypts ciphertext values
+	 * 
+	 * @param ciphertexts the ciphertext values
+	 * @param out where to write the plaintexts, at least as long as the input
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 */
+	public void decrypt(BigInteger[] ciphertexts, BigInteger[] out, boolean signed) {
+		this.checkLength(ciphertexts.length, out.length);
+		this.pool.invoke(new DecryptTask(ciphertexts, out, null, null, signed, 0, ciphertexts.length));
+	}
+	
+	/**
+	 * Decrypts ciphertext values into longs
+	 * 
+	 * @param ciphertexts the ciphertext values
+	 * @param out where to write the plaintexts, at least as long as the input
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 * @throws ArithmeticException if a plaintext does not fit in a long
+	 */
+	public void decrypt(BigInteger[] ciphertexts, long[] out, boolean signed) {
+		this.checkLength(ciphertexts.length, out.length);
+		this.pool.invoke(new DecryptTask(ciphertexts, null, out, null, signed, 0, ciphertexts.length));
+	}
+	
+	/**
+	 * Decrypts a batch of ciphertexts
+	 * 
+	 * @param batch the ciphertexts
+	 * @param out where to write the plaintexts, at least as long as the batch
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 */
+	public void decrypt(CiphertextBatch batch, BigInteger[] out, boolean signed) {
+		this.decrypt(BatchDecryptor.cipherVals(batch), out, signed);
+	}
+	
+	/**
+	 * Decrypts a batch of ciphertexts into longs
+	 * 
+	 * @param batch the ciphertexts
+	 * @param out where to write the plaintexts, at least as long as the batch
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 * @throws ArithmeticException if a plaintext does not fit in a long
+	 */
+	public void decrypt(CiphertextBatch batch, long[] out, boolean signed) {
+		this.decrypt(BatchDecryptor.cipherVals(batch), out, signed);
+	}
+	
+	/**
+	 * Decrypts encrypted integers
+	 * 
+	 * @param values the encrypted integers
+	 * @param out where to write the plaintexts, at least as long as the input
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 */
+	public void decrypt(EncryptedInteger[] values, BigInteger[] out, boolean signed) {
+		this.decrypt(BatchDecryptor.cipherVals(values), out, signed);
+	}
+	
+	/**
+	 * Decrypts encrypted integers into longs
+	 * 
+	 * @param values the encrypted integers
+	 * @param out where to write the plaintexts, at least as long as the input
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 * @throws ArithmeticException if a plaintext does not fit in a long
+	 */
+	public void decrypt(EncryptedInteger[] values, long[] out, boolean signed) {
+		this.decrypt(BatchDecryptor.cipherVals(values), out, signed);
+	}
+	
+	/**
+	 * Decrypts a stream of ciphertext values. The stream is processed in
+	 * parallel in the pool of this decryptor; the order of the plaintexts is
+	 * the encounter order of the stream.
+	 * 
+	 * @param ciphertexts the ciphertext values
+	 * @param signed true to decode plaintexts larger than n/2 as negative
+	 * @return the plaintexts
+	 */
+	public BigInteger[] decrypt(final Stream<BigInteger> ciphertexts, final boolean signed) {
+		return this.pool.submit(() ->
+				ciphertexts.parallel().map(c -> this.decryptOne(c, signed)).toArray(BigInteger[]::new)).join();
+	}
+	
+	/**
+	 * Decrypts and unpacks packed integers. The slots of values[i] are
+	 * written to out[i*slots] to out[i*slots + slots-1].
+	 * 
+	 * @param values the packed integers, which must all use the same scheme
+	 * @param out where to write the slot values, at least values.length * slots long
+	 */
+	public void decrypt(PackedEncryptedInteger[] values, BigInteger[] out) {
+		PackingScheme scheme = BatchDecryptor.commonScheme(values);
+		this.checkLength(values.length * (scheme == null ? 0 : scheme.getSlots()), out.length);
+		this.pool.invoke(new DecryptTask(BatchDecryptor.cipherVals(values), out, null, scheme, false, 0, values.length));
+	}
+	
+	/**
+	 * Decrypts and unpacks packed integers into longs. The slots of
+	 * values[i] are written to out[i*slots] to out[i*slots + slots-1].
+	 * 
+	 * @param values the packed integers, which must all use the same scheme
+	 * @param out where to write the slot values, at least values.length * slots long
+	 * @throws ArithmeticException if a slot value does not fit in a long
+	 */
+	public void decrypt(PackedEncryptedInteger[] values, long[] out) {
+		PackingScheme scheme = BatchDecryptor.commonScheme(values);
+		this.checkLength(values.length * (scheme == null ? 0 : scheme.getSlots()), out.length);
+		this.pool.invoke(new DecryptTask(BatchDecryptor.cipherVals(values), null, out, scheme, false, 0, values.length));
+	}
+	
+	/*
+	 * Decrypts one ciphertext value on the current thread
+	 */
+	private BigInteger decryptOne(BigInteger cipherval, boolean signed) {
+		BigInteger plainval = this.priv.decrypt(cipherval);
+		
+		if (signed && plainval.compareTo(this.half_n) > 0) {
+			plainval = plainval.subtract(this.n);
+		}
+		
+		return plainval;
+	}
+	
+	private void checkLength(int needed, int length) {
+		if (length < needed) {
+			throw new IllegalArgumentException("The output array must hold at least " + needed + " values");
+		}
+	}
+	
+	private static BigInteger[] cipherVals(CiphertextBatch batch) {
+		BigInteger[] tmp = new BigInteger[batch.size()];
+		for (int i=0; i<tmp.length; i++) {
+			tmp[i] = batch.getCipherVal(i);
+		}
+		
+		return tmp;
+	}
+	
+	private static BigInteger[] cipherVals(EncryptedInteger[] values) {
+		BigInteger[] tmp = new BigInteger[values.length];
+		for (int i=0; i<tmp.length; i++) {
+			tmp[i] = values[i].getCipherVal();
+		}
+		
+		return tmp;
+	}
+	
+	private static BigInteger[] cipherVals(PackedEncryptedInteger[] values) {
+		BigInteger[] tmp = new BigInteger[values.length];
+		for (int i=0; i<tmp.length; i++) {
+			tmp[i] = values[i].getEncryptedInteger().getCipherVal();
+		}
+		
+		return tmp;
+	}
+	
+	private static PackingScheme commonScheme(PackedEncryptedInteger[] values) {
+		if (values.length == 0) {
+			return null;
+		}
+		
+		PackingScheme scheme = values[0].getScheme();
+		for (PackedEncryptedInteger p : values) {
+			if (!scheme.equals(p.getScheme())) {
+				throw new IllegalArgumentException("All packed integers must use the same packing scheme");
+			}
+		}
+		
+		return scheme;
+	}
+	
+	/*
+	 * Decrypts a range of an array, splitting it in half until it is short
+	 */
+	private class DecryptTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BigInteger[] in;
+		private final BigInteger[] out;
+		private final long[] longOut;
+		private final PackingScheme scheme;
+		private final boolean signed;
+		private final int from;
+		private final int to;
+		
+		DecryptTask(BigInteger[] in, BigInteger[] out, long[] longOut, PackingScheme scheme,
+				boolean signed, int from, int to) {
+			this.in = in;
+			this.out = out;
+			this.longOut = longOut;
+			this.scheme = scheme;
+			this.signed = signed;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (this.to - this.from <= THRESHOLD) {
+				for (int i=this.from; i<this.to; i++) {
+					BigInteger plainval = decryptOne(this.in[i], this.signed);
+					
+					if (this.scheme == null) {
+						this.store(i, plainval);
+					}
+					else {
+						BigInteger[] slots = this.scheme.unpack(plainval);
+						for (int j=0; j<slots.length; j++) {
+							this.store(i * slots.length + j, slots[j]);
+						}
+					}
+				}
+				return;
+			}
+			
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new DecryptTask(this.in, this.out, this.longOut, this.scheme, this.signed, this.from, middle),
+					new DecryptTask(this.in, this.out, this.longOut, this.scheme, this.signed, middle, this.to));
+		}
+		
+		private void store(int i, BigInteger value) {
+			if (this.out != null) {
+				this.out[i] = value;
+			}
+			else {
+				this.longOut[i] = value.longValueExact();
+			}
+		}
+	}
+}
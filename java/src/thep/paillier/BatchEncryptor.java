@@ -0,0 +1,182 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Encrypts many plaintexts at once, spreading the work over the threads of
+ * a ForkJoin pool. Each thread uses its own secure random number generator
+ * and the results are returned as one contiguous ciphertext batch.
+ *
+ * If a randomness pool is attached to the public key the blinding factors
+ * are taken from it. An encryptor constructed with the private key
+ * computes the blinding factors with the Chinese Remainder Theorem, which
+ * is only useful when the party encrypting also holds the private key.
+ */
+public class BatchEncryptor {
+	// arrays shorter than this are encrypted on one thread
+	private static final int THRESHOLD = 16;
+	
+	private PublicKey pub;
+	private PrivateKey priv;
+	private ArithmeticBackend backend;
+	private ForkJoinPool pool;
+	
+	/**
+	 * Constructs an encryptor using the common ForkJoin pool
+	 * 
+	 * @param pub the public key to encrypt with
+	 */
+	public BatchEncryptor(PublicKey pub) {
+		this(pub, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Constructs an encryptor using the given ForkJoin pool
+	 * 
+	 * @param pub the public key to encrypt with
+	 * @param pool the pool to run the encryptions in
+	 */
+	public BatchEncryptor(PublicKey pub, ForkJoinPool pool) {
+		this.pub = pub;
+		this.priv = null;
+		this.backend = pub.getArithmeticBackend();
+		this.pool = pool;
+	}
+	
+	/**
+	 * Constructs an encryptor using the factors in the private key and the
+	 * common ForkJoin pool
+	 * 
+	 * @param priv the private key whose public key will be used
+	 */
+	public BatchEncryptor(PrivateKey priv) {
+		this(priv, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Constructs an encryptor using the factors in the private key and the
+	 * given ForkJoin pool
+	 * 
+	 * @param priv the private key whose public key will be used
+	 * @param pool the pool to run the encryptions in
+	 */
+	public BatchEncryptor(PrivateKey priv, ForkJoinPool pool) {
+		this(priv.getPublicKey(), pool);
+		this.priv = priv;
+	}
+	
+	/**
+	 * Returns the public key used for encryption
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Encrypts an array of plaintexts
+	 * 
+	 * @param plainvals the plaintexts
+	 * @return the ciphertexts, in the same order as the plaintexts
+	 */
+	public CiphertextBatch encrypt(BigInteger[] plainvals) {
+		BigInteger[] ciphertexts = new BigInteger[plainvals.length];
+		this.pool.invoke(new EncryptTask(plainvals, null, ciphertexts, 0, plainvals.length));
+		
+		return new CiphertextBatch(ciphertexts, this.pub);
+	}
+	
+	/**
+	 * Encrypts an array of plaintexts
+	 * 
+	 * @param plainvals the plaintexts, which may be negative
+	 * @return the ciphertexts, in the same order as the plaintexts
+	 */
+	public CiphertextBatch encrypt(long[] plainvals) {
+		BigInteger[] ciphertexts = new BigInteger[plainvals.length];
+		this.pool.invoke(new EncryptTask(null, plainvals, ciphertexts, 0, plainvals.length));
+		
+		return new CiphertextBatch(ciphertexts, this.pub);
+	}
+	
+	/**
+	 * Encrypts a stream of plaintexts. The stream is processed in parallel
+	 * in the pool of this encryptor; the order of the ciphertexts is the
+	 * encounter order of the stream.
+	 * 
+	 * @param plainvals the plaintexts
+	 * @return the ciphertexts
+	 */
+	public CiphertextBatch encrypt(final Stream<BigInteger> plainvals) {
+		BigInteger[] ciphertexts = this.pool.submit(() ->
+				plainvals.parallel().map(this::encryptOne).toArray(BigInteger[]::new)).join();
+		
+		return new CiphertextBatch(ciphertexts, this.pub);
+	}
+	
+	/*
+	 * Encrypts one plaintext on the current thread
+	 */
+	private BigInteger encryptOne(BigInteger plainval) {
+		BigInteger x;
+		
+		RandomnessPool pool = this.pub.getRandomnessPool();
+		if (pool != null) {
+			x = pool.take()[1];
+		}
+		else {
+			Random rng = SharedRandom.current();
+			BigInteger r;
+			do {
+				r = this.backend.random(this.pub.getBits(), rng);
+			} while (r.compareTo(this.pub.getN()) >= 0);
+			
+			if (this.priv != null) {
+				x = this.priv.computeBlinding(r);
+			}
+			else {
+				x = this.backend.modPow(r, this.pub.getN(), this.pub.getNSquared());
+			}
+		}
+		
+		return this.backend.modMultiply(this.pub.encode(plainval), x, this.pub.getNSquared());
+	}
+	
+	/*
+	 * Encrypts a range of an array, splitting it in half until it is short
+	 */
+	private class EncryptTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BigInteger[] plainvals;
+		private final long[] longvals;
+		private final BigInteger[] out;
+		private final int from;
+		private final int to;
+		
+		EncryptTask(BigInteger[] plainvals, long[] longvals, BigInteger[] out, int from, int to) {
+			this.plainvals = plainvals;
+			this.longvals = longvals;
+			this.out = out;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (this.to - this.from <= THRESHOLD) {
+				for (int i=this.from; i<this.to; i++) {
+					BigInteger m = this.plainvals != null ? this.plainvals[i] : BigInteger.valueOf(this.longvals[i]);
+					this.out[i] = encryptOne(m);
+				}
+				return;
+			}
+			
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new EncryptTask(this.plainvals, this.longvals, this.out, this.from, middle),
+					new EncryptTask(this.plainvals, this.longvals, this.out, middle, this.to));
+		}
+	}
+}
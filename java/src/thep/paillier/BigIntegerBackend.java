@@ -0,0 +1,30 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * The default arithmetic backend, using java.math.BigInteger directly
+ */
+public class BigIntegerBackend implements ArithmeticBackend {
+	/**
+	 * The shared instance, the backend has no state
+	 */
+	public static final BigIntegerBackend INSTANCE = new BigIntegerBackend();
+	
+	public BigInteger random(int bits, Random rng) {
+		return new BigInteger(bits, rng);
+	}
+	
+	public BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+		return base.modPow(exponent, modulus);
+	}
+	
+	public BigInteger modMultiply(BigInteger a, BigInteger b, BigInteger modulus) {
+		return a.multiply(b).mod(modulus);
+	}
+	
+	public BigInteger modInverse(BigInteger a, BigInteger modulus) {
+		return a.modInverse(modulus);
+	}
+}
@@ -0,0 +1,86 @@
+package thep.paillier;
+
+import java.lang.reflect.Constructor;
+import java.math.BigInteger;
+import java.util.Random;
+
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+
+/**
+ * An arithmetic backend for a subclass of BigInteger which overrides its
+ * arithmetic, for example one backed by a native library. The constructors
+ * of the class are looked up once; random values are created with its
+ * (int, Random) constructor and values are converted with its (BigInteger)
+ * constructor before exponentiating, so the subclass's modPow is used.
+ */
+public class BigIntegerClassBackend implements ArithmeticBackend {
+	private Class<? extends BigInteger> c;
+	private Constructor<? extends BigInteger> rngCons;
+	private Constructor<? extends BigInteger> biCons;
+	
+	/**
+	 * Constructs a backend for the given class
+	 * 
+	 * @param c the class to use for big integers
+	 * @throws BigIntegerClassNotValid if the class does not have a public
+	 * (int, Random) constructor
+	 */
+	public BigIntegerClassBackend(Class<? extends BigInteger> c) throws BigIntegerClassNotValid {
+		this.c = c;
+		
+		try {
+			this.rngCons = c.getConstructor(int.class, Random.class);
+		} catch (NoSuchMethodException e) {
+			throw new BigIntegerClassNotValid("Could not find the int, Random constructor");
+		}
+		
+		try {
+			this.biCons = c.getConstructor(BigInteger.class);
+		} catch (NoSuchMethodException e) {
+			this.biCons = null;
+		}
+	}
+	
+	/**
+	 * Returns the class used for big integers
+	 * @return the class used for big integers
+	 */
+	public Class<? extends BigInteger> getBigIntegerClass() {
+		return this.c;
+	}
+	
+	public BigInteger random(int bits, Random rng) {
+		try {
+			return this.rngCons.newInstance(bits, rng);
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not construct " + this.c.getName(), e);
+		}
+	}
+	
+	public BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+		return this.convert(base).modPow(exponent, modulus);
+	}
+	
+	public BigInteger modMultiply(BigInteger a, BigInteger b, BigInteger modulus) {
+		return this.convert(a).multiply(b).mod(modulus);
+	}
+	
+	public BigInteger modInverse(BigInteger a, BigInteger modulus) {
+		return this.convert(a).modInverse(modulus);
+	}
+	
+	/*
+	 * Converts x to the big integer class, if it has a BigInteger constructor
+	 */
+	private BigInteger convert(BigInteger x) {
+		if (this.biCons == null || this.c.isInstance(x)) {
+			return x;
+		}
+		
+		try {
+			return this.biCons.newInstance(x);
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not construct " + this.c.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package thep.paillier;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Random;
+
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+
+/**
+ * An immutable encrypted integer holding only the ciphertext value and its
+ * public key. Every operation returns a new ciphertext. Unlike
+ * EncryptedInteger there is no per-instance random number generator, big
+ * integer class or Montgomery form: randomness comes from the randomness
+ * pool of the key or from the generator of the current thread, and the
+ * arithmetic backend of the key is used. This keeps the overhead of each
+ * ciphertext to a single small object, so large collections of
+ * ciphertexts are dominated by the ciphertext values themselves.
+ *
+ * @see EncryptedInteger
+ * @see SharedRandom
+ */
+public final class Ciphertext implements Serializable {
+	/**
+	 * The serial version ID
+	 */
+	private static final long serialVersionUID = 1L;
+	private final BigInteger cipherval;
+	private final PublicKey pub;
+	
+	/**
+	 * Wraps an existing ciphertext value
+	 * 
+	 * @param cipherval the ciphertext value, in [0, N Squared)
+	 * @param pub the public key the value was encrypted with
+	 */
+	public Ciphertext(BigInteger cipherval, PublicKey pub) {
+		if (cipherval.signum() < 0 || cipherval.compareTo(pub.getNSquared()) >= 0) {
+			throw new IllegalArgumentException("The ciphertext value must be in [0, N Squared)");
+		}
+		
+		this.cipherval = cipherval;
+		this.pub = pub;
+	}
+	
+	/**
+	 * Constructs a ciphertext holding the value of an encrypted integer
+	 * 
+	 * @param other the encrypted integer
+	 */
+	public Ciphertext(EncryptedInteger other) {
+		this.cipherval = other.getCipherVal();
+		this.pub = other.getPublicKey();
+	}
+	
+	/**
+	 * Encrypts a plaintext value with the public key
+	 * 
+	 * @param plainval the plaintext value, which may be negative
+	 * @param pub the public key to encrypt with
+	 * @return the new ciphertext
+	 */
+	public static Ciphertext encrypt(BigInteger plainval, PublicKey pub) {
+		return Ciphertext.encode(plainval, Ciphertext.blindingFactor(pub), pub);
+	}
+	
+	/**
+	 * Encrypts a plaintext value under the public key of the private key,
+	 * which is faster since the blinding factor can be computed with the
+	 * Chinese Remainder Theorem
+	 * 
+	 * @param plainval the plaintext value, which may be negative
+	 * @param priv the private key whose public key will be used
+	 * @return the new ciphertext
+	 */
+	public static Ciphertext encrypt(BigInteger plainval, PrivateKey priv) {
+		PublicKey pub = priv.getPublicKey();
+		BigInteger x;
+		RandomnessPool pool = pub.getRandomnessPool();
+		if (pool != null) {
+			x = pool.take()[1];
+		}
+		else {
+			x = priv.computeBlinding(Ciphertext.randomValue(pub));
+		}
+		
+		return Ciphertext.encode(plainval, x, pub);
+	}
+	
+	/*
+	 * Returns g^plainval * x mod N Squared
+	 */
+	private static Ciphertext encode(BigInteger plainval, BigInteger x, PublicKey pub) {
+		BigInteger c = pub.getArithmeticBackend().modMultiply(pub.encode(plainval), x, pub.getNSquared());
+		
+		return new Ciphertext(c, pub);
+	}
+	
+	/*
+	 * Returns r^n mod N Squared for a random r, taken from the randomness
+	 * pool of the key if it has one
+	 */
+	private static BigInteger blindingFactor(PublicKey pub) {
+		RandomnessPool pool = pub.getRandomnessPool();
+		if (pool != null) {
+			return pool.take()[1];
+		}
+		
+		return pub.getArithmeticBackend().modPow(Ciphertext.randomValue(pub), pub.getN(), pub.getNSquared());
+	}
+	
+	/*
+	 * Generates a random value less than n from the generator of the
+	 * current thread
+	 */
+	private static BigInteger randomValue(PublicKey pub) {
+		Random rng = SharedRandom.current();
+		BigInteger r;
+		
+		do {
+			r = pub.getArithmeticBackend().random(pub.getBits(), rng);
+		} while (r.compareTo(pub.getN()) >= 0);
+		
+		return r;
+	}
+	
+	/**
+	 * Adds another ciphertext to this one
+	 * 
+	 * @param other the ciphertext to add
+	 * @return a new ciphertext encrypting the sum
+	 * @throws PublicKeysNotEqualException
+	 */
+	public Ciphertext add(Ciphertext other) throws PublicKeysNotEqualException {
+		if (!this.pub.equals(other.pub)) {
+			throw new PublicKeysNotEqualException("Cannot add integers encrypted with different public keys");
+		}
+		
+		BigInteger c = this.pub.getArithmeticBackend().modMultiply(this.cipherval, other.cipherval, this.pub.getNSquared());
+		
+		return new Ciphertext(c, this.pub);
+	}
+	
+	/**
+	 * Adds a constant to this ciphertext
+	 * 
+	 * @param constant the constant to add, which may be negative
+	 * @return a new ciphertext encrypting the sum
+	 */
+	public Ciphertext add(BigInteger constant) {
+		BigInteger c = this.pub.getArithmeticBackend().modMultiply(this.cipherval, this.pub.encode(constant),
+				this.pub.getNSquared());
+		
+		return new Ciphertext(c, this.pub);
+	}
+	
+	/**
+	 * Multiplies this ciphertext by a constant. The constant is normalized
+	 * the same way as in EncryptedInteger.multiply().
+	 * 
+	 * @param constant the constant to multiply by, which may be negative
+	 * @return a new ciphertext encrypting the product
+	 * @see EncryptedInteger#multiply(BigInteger)
+	 */
+	public Ciphertext multiply(BigInteger constant) {
+		BigInteger c = EncryptedInteger.power(this.pub.getArithmeticBackend(), this.pub, this.cipherval, constant);
+		
+		return new Ciphertext(c, this.pub);
+	}
+	
+	/**
+	 * Returns a rerandomized copy of this ciphertext, encrypting the same
+	 * value with fresh randomness
+	 * 
+	 * @return the rerandomized ciphertext
+	 * @see EncryptedInteger#rerandomize()
+	 */
+	public Ciphertext rerandomize() {
+		BigInteger c = this.pub.getArithmeticBackend().modMultiply(this.cipherval, Ciphertext.blindingFactor(this.pub),
+				this.pub.getNSquared());
+		
+		return new Ciphertext(c, this.pub);
+	}
+	
+	/**
+	 * Decrypts the ciphertext
+	 * 
+	 * @param priv the private key to decrypt with
+	 * @return the plaintext value, in [0, N)
+	 */
+	public BigInteger decrypt(PrivateKey priv) {
+		return priv.decrypt(this.cipherval);
+	}
+	
+	/**
+	 * Returns the ciphertext value
+	 * 
+	 * @return the ciphertext value
+	 */
+	public BigInteger getCipherVal() {
+		return this.cipherval;
+	}
+	
+	/**
+	 * Returns the public key associated with this ciphertext
+	 * 
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Returns an encrypted integer holding the same ciphertext value
+	 * 
+	 * @return a new encrypted integer
+	 */
+	public EncryptedInteger toEncryptedInteger() {
+		return EncryptedInteger.fromCipherVal(this.cipherval, this.pub);
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Ciphertext)) {
+			return false;
+		}
+		
+		Ciphertext tmp = (Ciphertext) other;
+		return this.cipherval.equals(tmp.cipherval) && this.pub.equals(tmp.pub);
+	}
+	
+	@Override
+	public int hashCode() {
+		return this.cipherval.hashCode();
+	}
+}
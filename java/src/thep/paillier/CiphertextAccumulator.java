@@ -0,0 +1,291 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+
+/**
+ * A mutable sum of encrypted integers, for adding up long streams of
+ * ciphertexts without creating an encrypted integer for every partial
+ * sum. Ciphertexts are multiplied into a preallocated buffer with
+ * Montgomery multiplications, constants are summed as plaintext and
+ * applied once, and an encrypted integer is only created by getResult().
+ *
+ * Added ciphertexts are not converted to Montgomery form. Each product
+ * with an ordinary ciphertext leaves an extra factor of R^-1 in the
+ * buffer; these are counted and removed by one exponentiation in
+ * getResult(). Because the context uses lazy reduction, no product in
+ * the buffer is ever fully reduced, only the final result is. Apart from
+ * the copy BigInteger.toByteArray() makes when a ciphertext is read, adding
+ * a ciphertext does not allocate.
+ *
+ * An accumulator is not thread-safe. To sum in parallel, use one
+ * accumulator per thread and add their results.
+ *
+ * @see MontgomeryContext
+ */
+public class CiphertextAccumulator {
+	private PublicKey pub;
+	private MontgomeryContext ctx;
+	private BigInteger half_n;
+	
+	private int[] product; // product of the terms times R^-shift
+	private long shift;
+	private int[] negative; // product of the terms with negative weights
+	private boolean has_negative;
+	private long constant;
+	private BigInteger constants; // overflow of constant
+	private int count;
+	
+	// Buffers reused by every addition
+	private int[] limbs;
+	private int[] power;
+	private int[] square;
+	private int[] scratch;
+	private int[][] table;
+	
+	/**
+	 * Constructs an accumulator holding an encryption of zero
+	 * 
+	 * @param pub the public key of the ciphertexts to add
+	 */
+	public CiphertextAccumulator(PublicKey pub) {
+		this.pub = pub;
+		this.ctx = pub.getMontgomeryContext();
+		this.half_n = pub.getN().shiftRight(1);
+		
+		int s = this.ctx.getLimbs();
+		this.product = new int[s];
+		this.negative = new int[s];
+		this.limbs = new int[s];
+		this.power = new int[s];
+		this.square = new int[s];
+		this.scratch = this.ctx.newScratch();
+		this.table = new int[1 << (MontgomeryContext.windowSize(pub.getN().bitLength()) - 1)][s];
+		
+		this.reset();
+	}
+	
+	/**
+	 * Resets the accumulator to an encryption of zero
+	 */
+	public void reset() {
+		for (int i=0; i<this.product.length; i++) {
+			this.product[i] = 0;
+			this.negative[i] = 0;
+		}
+		this.product[0] = 1;
+		this.negative[0] = 1;
+		this.shift = 0;
+		this.has_negative = false;
+		this.constant = 0;
+		this.constants = BigInteger.ZERO;
+		this.count = 0;
+	}
+	
+	/**
+	 * Adds an encrypted integer. An encrypted integer in Montgomery form is
+	 * added without converting it.
+	 * 
+	 * @param other the encrypted integer to add
+	 * @throws PublicKeysNotEqualException
+	 */
+	public void add(EncryptedInteger other) throws PublicKeysNotEqualException {
+		this.checkPublicKey(other.getPublicKey());
+		
+		int[] montval = other.getMontVal();
+		if (montval != null) {
+			// (x*R^-shift) * (c*R) * R^-1 = x*c*R^-shift
+			this.ctx.multiply(this.product, montval, this.product, this.scratch);
+			this.count++;
+			return;
+		}
+		
+		this.addCipherVal(other.getCipherVal());
+	}
+	
+	/**
+	 * Adds a ciphertext
+	 * 
+	 * @param other the ciphertext to add
+	 * @throws PublicKeysNotEqualException
+	 */
+	public void add(Ciphertext other) throws PublicKeysNotEqualException {
+		this.checkPublicKey(other.getPublicKey());
+		this.addCipherVal(other.getCipherVal());
+	}
+	
+	/**
+	 * Adds a ciphertext value encrypted with the public key of the
+	 * accumulator
+	 * 
+	 * @param cipherval the ciphertext value, less than N Squared
+	 */
+	public void addCipherVal(BigInteger cipherval) {
+		this.ctx.toLimbs(cipherval, this.limbs);
+		this.ctx.multiply(this.product, this.limbs, this.product, this.scratch);
+		this.shift++;
+		this.count++;
+	}
+	
+	/**
+	 * Adds a plaintext constant. Constants are summed as plaintext and
+	 * applied once by getResult().
+	 * 
+	 * @param constant the constant to add, which may be negative
+	 */
+	public void add(long constant) {
+		try {
+			this.constant = Math.addExact(this.constant, constant);
+		} catch (ArithmeticException e) {
+			this.constants = this.constants.add(BigInteger.valueOf(this.constant));
+			this.constant = constant;
+		}
+	}
+	
+	/**
+	 * Adds a plaintext constant
+	 * 
+	 * @param constant the constant to add, which may be negative
+	 * @see #add(long)
+	 */
+	public void add(BigInteger constant) {
+		this.constants = this.constants.add(constant);
+	}
+	
+	/**
+	 * Adds an encrypted integer multiplied by a constant
+	 * 
+	 * @param other the encrypted integer
+	 * @param k the constant to multiply by, which may be negative
+	 * @throws PublicKeysNotEqualException
+	 */
+	public void addScaled(EncryptedInteger other, BigInteger k) throws PublicKeysNotEqualException {
+		this.checkPublicKey(other.getPublicKey());
+		this.addScaledCipherVal(other.getCipherVal(), k);
+	}
+	
+	/**
+	 * Adds a ciphertext multiplied by a constant
+	 * 
+	 * @param other the ciphertext
+	 * @param k the constant to multiply by, which may be negative
+	 * @throws PublicKeysNotEqualException
+	 */
+	public void addScaled(Ciphertext other, BigInteger k) throws PublicKeysNotEqualException {
+		this.checkPublicKey(other.getPublicKey());
+		this.addScaledCipherVal(other.getCipherVal(), k);
+	}
+	
+	/**
+	 * Adds a ciphertext value multiplied by a constant. The constant is
+	 * reduced mod N, and a constant above N/2 is applied as a negative
+	 * constant: its term is kept in a separate product which is inverted
+	 * once by getResult().
+	 * 
+	 * @param cipherval the ciphertext value, less than N Squared
+	 * @param k the constant to multiply by, which may be negative
+	 */
+	public void addScaledCipherVal(BigInteger cipherval, BigInteger k) {
+		BigInteger n = this.pub.getN();
+		if (k.signum() < 0 || k.compareTo(n) >= 0) {
+			k = k.mod(n);
+		}
+		
+		boolean negate = k.compareTo(this.half_n) > 0;
+		if (negate) {
+			k = n.subtract(k);
+		}
+		
+		this.count++;
+		if (k.signum() == 0) {
+			return;
+		}
+		
+		this.ctx.toLimbs(cipherval, this.limbs);
+		this.ctx.toMontgomery(this.limbs, this.limbs, this.scratch);
+		
+		int window = MontgomeryContext.windowSize(k.bitLength());
+		this.ctx.powerTable(this.limbs, window, this.table, this.square, this.scratch);
+		this.ctx.pow(this.table, window, k, this.power, this.scratch);
+		
+		// The power is in Montgomery form, so neither product gains a factor
+		if (negate) {
+			this.ctx.multiply(this.negative, this.power, this.negative, this.scratch);
+			this.has_negative = true;
+		}
+		else {
+			this.ctx.multiply(this.product, this.power, this.product, this.scratch);
+		}
+	}
+	
+	/**
+	 * Returns the number of ciphertexts added since the accumulator was
+	 * created or reset
+	 * 
+	 * @return the number of ciphertexts added
+	 */
+	public int getCount() {
+		return this.count;
+	}
+	
+	/**
+	 * Returns the public key of the accumulator
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Returns the encrypted sum. The result is not rerandomized, and the
+	 * accumulator can still be added to afterwards.
+	 * 
+	 * @return a new encrypted integer holding the sum
+	 */
+	public EncryptedInteger getResult() {
+		return EncryptedInteger.fromCipherVal(this.getCipherVal(), this.pub);
+	}
+	
+	/**
+	 * Returns the encrypted sum as a ciphertext
+	 * 
+	 * @return a new ciphertext holding the sum
+	 * @see #getResult()
+	 */
+	public Ciphertext getCiphertext() {
+		return new Ciphertext(this.getCipherVal(), this.pub);
+	}
+	
+	/*
+	 * Removes the factors of R^-1, divides by the negative terms and
+	 * applies the constants
+	 */
+	private BigInteger getCipherVal() {
+		BigInteger m = this.ctx.getModulus();
+		BigInteger value = this.ctx.toBigInteger(this.product).mod(m);
+		
+		if (this.shift > 0) {
+			BigInteger r = BigInteger.ONE.shiftLeft(32 * this.ctx.getLimbs()).mod(m);
+			value = value.multiply(r.modPow(BigInteger.valueOf(this.shift), m)).mod(m);
+		}
+		
+		if (this.has_negative) {
+			BigInteger tmp = this.ctx.toBigInteger(this.negative).mod(m);
+			value = value.multiply(tmp.modInverse(m)).mod(m);
+		}
+		
+		BigInteger total = this.constants.add(BigInteger.valueOf(this.constant));
+		if (total.signum() != 0) {
+			value = value.multiply(this.pub.encode(total)).mod(m);
+		}
+		
+		return value;
+	}
+	
+	private void checkPublicKey(PublicKey other) throws PublicKeysNotEqualException {
+		if (!this.pub.equals(other)) {
+			throw new PublicKeysNotEqualException("Cannot add integers encrypted with different public keys");
+		}
+	}
+}
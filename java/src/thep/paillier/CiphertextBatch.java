@@ -0,0 +1,216 @@
+package thep.paillier;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+
+/**
+ * A batch of ciphertexts under one public key, stored contiguously as
+ * ciphertext values rather than as separate encrypted integer objects.
+ * Encrypted integers are only created when they are asked for.
+ */
+public class CiphertextBatch implements Serializable {
+	/**
+	 * The serial version ID
+	 */
+	private static final long serialVersionUID = 1L;
+	private BigInteger[] ciphertexts;
+	private PublicKey pub;
+	
+	/**
+	 * Constructs a batch from ciphertext values. The array is not copied.
+	 * 
+	 * @param ciphertexts the ciphertext values, each less than N Squared
+	 * @param pub the public key the values are encrypted with
+	 */
+	public CiphertextBatch(BigInteger[] ciphertexts, PublicKey pub) {
+		this.ciphertexts = ciphertexts;
+		this.pub = pub;
+	}
+	
+	/**
+	 * Constructs a batch from encrypted integers
+	 * 
+	 * @param values the encrypted integers
+	 * @param pub the public key the values are encrypted with
+	 * @throws PublicKeysNotEqualException if a value is encrypted with a
+	 * different public key
+	 */
+	public CiphertextBatch(EncryptedInteger[] values, PublicKey pub) throws PublicKeysNotEqualException {
+		this.ciphertexts = new BigInteger[values.length];
+		this.pub = pub;
+		
+		for (int i=0; i<values.length; i++) {
+			if (!pub.equals(values[i].getPublicKey())) {
+				throw new PublicKeysNotEqualException("All values in a batch " +
+						"must be encrypted with the same public key");
+			}
+			this.ciphertexts[i] = values[i].getCipherVal();
+		}
+	}
+	
+	/**
+	 * Returns the number of ciphertexts in the batch
+	 * @return the number of ciphertexts
+	 */
+	public int size() {
+		return this.ciphertexts.length;
+	}
+	
+	/**
+	 * Returns the public key the batch is encrypted with
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Returns one ciphertext value
+	 * 
+	 * @param i the index of the ciphertext
+	 * @return the ciphertext value
+	 */
+	public BigInteger getCipherVal(int i) {
+		return this.ciphertexts[i];
+	}
+	
+	/**
+	 * Returns one ciphertext as an encrypted integer
+	 * 
+	 * @param i the index of the ciphertext
+	 * @return a new encrypted integer holding the ciphertext
+	 */
+	public EncryptedInteger get(int i) {
+		return EncryptedInteger.fromCipherVal(this.ciphertexts[i], this.pub);
+	}
+	
+	/**
+	 * Returns one ciphertext as an immutable ciphertext
+	 * 
+	 * @param i the index of the ciphertext
+	 * @return a new ciphertext
+	 */
+	public Ciphertext getCiphertext(int i) {
+		return new Ciphertext(this.ciphertexts[i], this.pub);
+	}
+	
+	/**
+	 * Returns the ciphertexts as encrypted integers
+	 * 
+	 * @return a new array of encrypted integers
+	 */
+	public EncryptedInteger[] toArray() {
+		EncryptedInteger[] values = new EncryptedInteger[this.ciphertexts.length];
+		for (int i=0; i<values.length; i++) {
+			values[i] = this.get(i);
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Computes the encrypted weighted sum of the batch, the sum of
+	 * weights[i] times the plaintext of ciphertext i. This is the product
+	 * of the ciphertexts raised to the weights, computed with one
+	 * multi-exponentiation instead of one exponentiation per ciphertext.
+	 * 
+	 * Weights are reduced mod n, and weights above n/2 are applied as
+	 * negative weights by inverting the product of their terms, so small
+	 * negative weights stay cheap. The result is not rerandomized.
+	 * 
+	 * @param weights the weights, one per ciphertext
+	 * @return the encrypted weighted sum
+	 * @see MultiExponentiation
+	 */
+	public EncryptedInteger weightedSum(BigInteger[] weights) {
+		if (weights.length != this.ciphertexts.length) {
+			throw new IllegalArgumentException("There must be one weight per ciphertext");
+		}
+		
+		BigInteger result = CiphertextBatch.weightedSum(this.pub, this.ciphertexts, null, weights);
+		
+		return EncryptedInteger.fromCipherVal(result, this.pub);
+	}
+	
+	/*
+	 * Computes the product of ciphertexts[i]^weights[i] mod N Squared,
+	 * applying weights above N/2 as negative weights. If mont is not null
+	 * it holds the ciphertexts already in Montgomery form.
+	 */
+	static BigInteger weightedSum(PublicKey pub, BigInteger[] ciphertexts, int[][] mont, BigInteger[] weights) {
+		BigInteger n = pub.getN();
+		BigInteger half_n = n.shiftRight(1);
+		List<Integer> pos_terms = new ArrayList<Integer>();
+		List<BigInteger> pos_exponents = new ArrayList<BigInteger>();
+		List<Integer> neg_terms = new ArrayList<Integer>();
+		List<BigInteger> neg_exponents = new ArrayList<BigInteger>();
+		
+		for (int i=0; i<weights.length; i++) {
+			BigInteger k = weights[i].mod(n);
+			if (k.signum() == 0) {
+				continue;
+			}
+			
+			if (k.compareTo(half_n) > 0) {
+				neg_terms.add(i);
+				neg_exponents.add(n.subtract(k));
+			}
+			else {
+				pos_terms.add(i);
+				pos_exponents.add(k);
+			}
+		}
+		
+		BigInteger n_squared = pub.getNSquared();
+		BigInteger result = CiphertextBatch.multiExponentiate(pub, ciphertexts, mont, pos_terms, pos_exponents);
+		
+		if (!neg_terms.isEmpty()) {
+			BigInteger tmp = CiphertextBatch.multiExponentiate(pub, ciphertexts, mont, neg_terms, neg_exponents);
+			result = result.multiply(tmp.modInverse(n_squared)).mod(n_squared);
+		}
+		
+		return result;
+	}
+	
+	private static BigInteger multiExponentiate(PublicKey pub, BigInteger[] ciphertexts, int[][] mont, 
+			List<Integer> terms, List<BigInteger> exponents) {
+		MontgomeryContext ctx = pub.getMontgomeryContext();
+		BigInteger[] e = exponents.toArray(new BigInteger[exponents.size()]);
+		
+		if (mont != null && terms.size() >= MultiExponentiation.MIN_TERMS) {
+			int[][] bases = new int[terms.size()][];
+			for (int i=0; i<bases.length; i++) {
+				bases[i] = mont[terms.get(i)];
+			}
+			
+			return MultiExponentiation.compute(ctx, bases, e);
+		}
+		
+		BigInteger[] bases = new BigInteger[terms.size()];
+		for (int i=0; i<bases.length; i++) {
+			bases[i] = ciphertexts[terms.get(i)];
+		}
+		
+		return MultiExponentiation.compute(ctx, bases, e);
+	}
+	
+	/**
+	 * Computes the encrypted weighted sum of the batch
+	 * 
+	 * @param weights the weights, one per ciphertext
+	 * @return the encrypted weighted sum
+	 * @see #weightedSum(BigInteger[])
+	 */
+	public EncryptedInteger weightedSum(long[] weights) {
+		BigInteger[] tmp = new BigInteger[weights.length];
+		for (int i=0; i<weights.length; i++) {
+			tmp[i] = BigInteger.valueOf(weights[i]);
+		}
+		
+		return this.weightedSum(tmp);
+	}
+}
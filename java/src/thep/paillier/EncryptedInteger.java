@@ -1,11 +1,11 @@
 package thep.paillier;
 
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.lang.reflect.Constructor;
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.Random;
 
 import thep.paillier.exceptions.BigIntegerClassNotValid;
@@ -16,13 +16,16 @@ public class EncryptedInteger implements Serializable {
 	 * The serial version ID
 	 */
 	private static final long serialVersionUID = 1L;
+	// exponent length which costs about as much as a modular inverse
+	private static final int INVERSE_BITS = 256;
+	private static final BigInteger TWO = BigInteger.valueOf(2);
 	private BigInteger cipherval;
+	// the ciphertext in Montgomery form, cipherval is computed from it lazily
+	transient private int[] montval;
 	private PublicKey	pub;
-	private Random rng;
-	@SuppressWarnings("rawtypes")
-	transient private Constructor rngCons;
-	@SuppressWarnings("rawtypes")
-	transient private Constructor biCons;
+	transient private ArithmeticBackend backend;
+	// the big integer class, kept so the backend can be selected again
+	// after deserialization
 	@SuppressWarnings("rawtypes")
 	private Class bigi;
 
@@ -67,25 +70,59 @@ public class EncryptedInteger implements Serializable {
 	 * @throws BigIntegerClassNotValid
 	 */
 	public EncryptedInteger(BigInteger plainval, PublicKey pub, Class<? extends BigInteger> c) throws BigIntegerClassNotValid {
-		this.rng = new SecureRandom();
 		this.pub = pub;
-		this.rngCons = this.findRngCons(c);
-		this.biCons = this.findBICons(c);
+		this.backend = pub.getArithmeticBackend(c);
 		this.bigi = c;
 		this.set(plainval);
 	}
 	
+	/**
+	 * Constructs an encrypted integer version of the given plaintext value
+	 * using the private key. The result is an ordinary encrypted integer
+	 * under the associated public key, but encryption is faster since the
+	 * factors of the modulus are known.
+	 * 
+	 * @param plainval the plaintext for the encrypted integer
+	 * @param priv the private key whose public key will be used
+	 * @throws BigIntegerClassNotValid
+	 */
+	public EncryptedInteger(BigInteger plainval, PrivateKey priv) throws BigIntegerClassNotValid {
+		this.pub = priv.getPublicKey();
+		this.backend = this.pub.getArithmeticBackend();
+		this.bigi = BigInteger.class;
+		this.encrypt(plainval, priv);
+	}
+	
 	/**
 	 * Constructs a copy of the other encrypted integer
 	 * 
 	 * @param other the other encrypted integer
 	 */
 	public EncryptedInteger(EncryptedInteger other) {
-		this.rng = new SecureRandom();
-		this.cipherval = other.getCipherVal();
+		this.cipherval = other.cipherval;
+		this.montval = other.montval;
 		this.pub = other.getPublicKey();
-		this.rngCons = other.rngCons;
-		this.biCons = other.biCons;
+		this.backend = other.backend;
+		this.bigi = other.bigi;
+	}
+	
+	/*
+	 * Constructs an encrypted integer holding an existing ciphertext value
+	 */
+	static EncryptedInteger fromCipherVal(BigInteger cipherval, PublicKey pub) {
+		EncryptedInteger tmp = new EncryptedInteger();
+		tmp.cipherval = cipherval;
+		tmp.pub = pub;
+		tmp.backend = pub.getArithmeticBackend();
+		tmp.bigi = BigInteger.class;
+		
+		return tmp;
+	}
+	
+	/*
+	 * Used by fromCipherVal()
+	 */
+	private EncryptedInteger() {
 	}
 	
 	/**
@@ -98,35 +135,98 @@ public class EncryptedInteger implements Serializable {
 	 */
 	public BigInteger set(BigInteger plainval) throws BigIntegerClassNotValid {
 		// Encrypt plainval and store it in cipherval
-		BigInteger r = BigInteger.ZERO;
+		BigInteger r;
 		BigInteger x;
 		
-		// Generate random blinding factor less than n
-		do {
-			try {
-				r = (BigInteger) this.rngCons.newInstance(this.pub.getBits(), rng);
-			} catch (Exception e) {
-				throw new BigIntegerClassNotValid("Could not construct the given big integer class");
-			}
-		} while(r.compareTo(this.pub.getN()) >= 0);
+		// Take a precomputed blinding factor if the key has a pool
+		RandomnessPool pool = this.pub.getRandomnessPool();
+		if (pool != null) {
+			BigInteger[] value = pool.take();
+			r = value[0];
+			x = value[1];
+		}
+		else {
+			r = this.randomBlindingValue();
+			x = this.backend.modPow(r, this.pub.getN(), this.pub.getNSquared());
+		}
 		
-		BigInteger g = this.pub.getG();
-		try {
-			if (this.biCons != null)
-				g = (BigInteger) this.biCons.newInstance(this.pub.getG());
-			
-		} catch (Exception e) {
-			throw new BigIntegerClassNotValid("Could not construct");
+		// g^plainval, computed without exponentiation since g = n+1
+		BigInteger c = this.pub.encode(plainval);
+		
+		c = this.backend.modMultiply(c, x, this.pub.getNSquared());
+		this.setCipherVal(c);
+		
+		return r;
+	}
+	
+	/**
+	 * Sets the encrypted integer to an encrypted version of the plaintext
+	 * value, using the factors in the private key to compute the blinding
+	 * factor. This is only useful when the party encrypting also holds the
+	 * private key. WARNING: The return value 'r' must be kept private for
+	 * security.
+	 * 
+	 * @param plainval the new plaintext value that will be encrypted
+	 * @param priv the private key associated with this encrypted integer
+	 * @return the random number used to encrypt plainval
+	 * @throws BigIntegerClassNotValid
+	 * @throws PublicKeysNotEqualException
+	 */
+	public BigInteger set(BigInteger plainval, PrivateKey priv) throws BigIntegerClassNotValid, PublicKeysNotEqualException {
+		if (!this.pub.equals(priv.getPublicKey())) {
+			throw new PublicKeysNotEqualException("Cannot encrypt with a private key for a different public key");
+		}
+		
+		return this.encrypt(plainval, priv);
+	}
+	
+	/*
+	 * Encrypts plainval using the CRT blinding factor from the private key
+	 */
+	private BigInteger encrypt(BigInteger plainval, PrivateKey priv) throws BigIntegerClassNotValid {
+		BigInteger r;
+		BigInteger x;
+		
+		// A precomputed blinding factor is cheaper still
+		RandomnessPool pool = this.pub.getRandomnessPool();
+		if (pool != null) {
+			BigInteger[] value = pool.take();
+			r = value[0];
+			x = value[1];
+		}
+		else {
+			r = this.randomBlindingValue();
+			x = priv.computeBlinding(r);
 		}
-		cipherval = g.modPow(plainval, this.pub.getNSquared());
-		x = r.modPow(this.pub.getN(), this.pub.getNSquared());
 		
-		cipherval = cipherval.multiply(x);
-		cipherval = cipherval.mod(this.pub.getNSquared());
+		BigInteger c = this.pub.encode(plainval);
+		c = this.backend.modMultiply(c, x, this.pub.getNSquared());
+		this.setCipherVal(c);
 		
 		return r;
 	}
 	
+	/*
+	 * Generates a random blinding value less than n
+	 */
+	private BigInteger randomBlindingValue() throws BigIntegerClassNotValid {
+		BigInteger r = BigInteger.ZERO;
+		
+		do {
+			r = this.backend.random(this.pub.getBits(), this.random());
+		} while(r.compareTo(this.pub.getN()) >= 0);
+		
+		return r;
+	}
+	
+	/*
+	 * Encrypted integers do not keep their own generator, so that creating
+	 * temporaries is cheap and no generator state is serialized
+	 */
+	private Random random() {
+		return SharedRandom.current();
+	}
+	
 	/**
 	 * Adds one encrypted integer to this encrypted integer
 	 * Note, if you are using r returned from the set(BigInteger) method,
@@ -142,8 +242,20 @@ public class EncryptedInteger implements Serializable {
 			throw new PublicKeysNotEqualException("Cannot add integers encrypted with different public keys");
 		}
 		EncryptedInteger tmp_int = new EncryptedInteger(this);
-		BigInteger tmp = cipherval.multiply(other.getCipherVal());
-		tmp = tmp.mod(pub.getNSquared());
+		
+		// Stay in Montgomery form, avoiding the division
+		if (this.montval != null) {
+			MontgomeryContext ctx = this.pub.getMontgomeryContext();
+			int[] tmp = other.montval;
+			if (tmp == null) {
+				tmp = ctx.toMontgomery(other.getCipherVal());
+			}
+			
+			tmp_int.setMontVal(ctx.multiply(this.montval, tmp));
+			return tmp_int;
+		}
+		
+		BigInteger tmp = this.backend.modMultiply(cipherval, other.getCipherVal(), pub.getNSquared());
 		
 		tmp_int.setCipherVal(tmp);
 		
@@ -159,16 +271,15 @@ public class EncryptedInteger implements Serializable {
 	 */
 	public EncryptedInteger add(BigInteger other) throws BigIntegerClassNotValid {
 		EncryptedInteger tmp_int = new EncryptedInteger(this);
-		BigInteger g = this.pub.getG();
-		try {
-			if (this.biCons != null)
-				g = (BigInteger) this.biCons.newInstance(this.pub.getG());
-
-		} catch (Exception e) {
-			throw new BigIntegerClassNotValid("Could not construct");
+		
+		if (this.montval != null) {
+			MontgomeryContext ctx = this.pub.getMontgomeryContext();
+			tmp_int.setMontVal(ctx.multiply(this.montval, ctx.toMontgomery(this.pub.encode(other))));
+			return tmp_int;
 		}
-		BigInteger tmp = cipherval.multiply(g.modPow(other, this.pub.getNSquared()));
-		tmp = tmp.mod(this.pub.getNSquared());
+		
+		// g^other is 1 + other*n since g = n+1, so this is one multiplication
+		BigInteger tmp = this.backend.modMultiply(cipherval, this.pub.encode(other), this.pub.getNSquared());
 		
 		tmp_int.setCipherVal(tmp);
 		
@@ -176,7 +287,11 @@ public class EncryptedInteger implements Serializable {
 	}
 	
 	/**
-	 * Multiplies the encrypted integer by a constant
+	 * Multiplies the encrypted integer by a constant. The constant is
+	 * reduced mod N first. A constant close to N, such as a small negative
+	 * constant, is applied as an inversion followed by a short
+	 * exponentiation by N minus the constant, and multiplying by 0, 1 or 2
+	 * needs at most one multiplication.
 	 * 
 	 * @param other the constant by which to multiply
 	 * @return a new encrypted integer equal to the original times the constant
@@ -184,21 +299,48 @@ public class EncryptedInteger implements Serializable {
 	 */
 	public EncryptedInteger multiply(BigInteger other) throws BigIntegerClassNotValid {
 		EncryptedInteger tmp_int = new EncryptedInteger(this);
-		BigInteger c = cipherval;
-		try {
-			if (this.biCons != null)
-				c = (BigInteger) this.biCons.newInstance(cipherval);
-			
-		} catch (Exception e) {
-			throw new BigIntegerClassNotValid("Could not construct");
-		}
-		BigInteger tmp = c.modPow(other, pub.getNSquared());
+		// BigInteger.modPow is faster than exponentiating in Montgomery form
+		// here, so getCipherVal() leaves Montgomery form for it, and
+		// setCipherVal() converts the result back if this was in that form
+		BigInteger tmp = EncryptedInteger.power(this.backend, this.pub, this.getCipherVal(), other);
 		
 		tmp_int.setCipherVal(tmp);
 		
 		return tmp_int;
 	}
 	
+	/*
+	 * Computes c^k mod N Squared after normalizing k. Since only the
+	 * plaintext matters, k can be replaced by anything congruent to it
+	 * mod N: c^(k-N) encrypts the same value as c^k, with a different
+	 * n-th residue as its randomness.
+	 */
+	static BigInteger power(ArithmeticBackend backend, PublicKey pub, BigInteger c, BigInteger k) {
+		BigInteger N = pub.getN();
+		BigInteger N_squared = pub.getNSquared();
+		k = k.mod(N);
+		
+		// Use the inverse when N - k is much shorter than k
+		BigInteger k_negated = N.subtract(k);
+		if (k_negated.bitLength() + INVERSE_BITS < k.bitLength()) {
+			c = backend.modInverse(c, N_squared);
+			k = k_negated;
+		}
+		
+		// For 0, 1 and 2 a square at most is cheaper than modPow's setup
+		if (k.signum() == 0) {
+			return BigInteger.ONE;
+		}
+		else if (k.equals(BigInteger.ONE)) {
+			return c;
+		}
+		else if (k.equals(TWO)) {
+			return backend.modMultiply(c, c, N_squared);
+		}
+		
+		return backend.modPow(c, k, N_squared);
+	}
+	
 	/**
 	 * Rerandomizes the encrypted integer (without needing the private key)
 	 * by using the homomorphic properties to add a randomly encrypted version
@@ -214,15 +356,63 @@ public class EncryptedInteger implements Serializable {
 	 * @throws BigIntegerClassNotValid 
 	 */
 	public void rerandomize() throws BigIntegerClassNotValid {
+		this.blind();
+	}
+	
+	/*
+	 * rerandomize() without the checked exception, for use in parallel tasks
+	 */
+	void blind() {
 		BigInteger r = BigInteger.ZERO;
-		try {
-			r = (BigInteger) this.rngCons.newInstance(this.pub.getBits(), rng);
-		} catch (Exception e) {
-			throw new BigIntegerClassNotValid("Could not construct the given big integer class");
+		RandomnessPool pool = this.pub.getRandomnessPool();
+		if (pool != null) {
+			r = pool.take()[1];
+		}
+		else {
+			r = this.backend.random(this.pub.getBits(), this.random());
+			r = this.backend.modPow(r, this.pub.getN(), this.pub.getNSquared());
+		}
+		
+		if (this.montval != null) {
+			MontgomeryContext ctx = this.pub.getMontgomeryContext();
+			this.setMontVal(ctx.multiply(this.montval, ctx.toMontgomery(r)));
+			return;
+		}
+		
+		cipherval = this.backend.modMultiply(cipherval, r, this.pub.getNSquared());
+	}
+	
+	/**
+	 * Converts the ciphertext to Montgomery form. Encrypted integers
+	 * computed from this one by adding or multiplying stay in Montgomery
+	 * form, so long chains of homomorphic additions avoid a full division
+	 * on every step. The ciphertext is only converted back when it is
+	 * needed, for example by getCipherVal(), decrypt() or serialization.
+	 * 
+	 * @see MontgomeryContext
+	 */
+	public void toMontgomeryForm() {
+		if (this.montval == null) {
+			this.montval = this.pub.getMontgomeryContext().toMontgomery(cipherval);
 		}
-		r = r.modPow(this.pub.getN(), this.pub.getNSquared());
-		cipherval = cipherval.multiply(r);
-		cipherval = cipherval.mod(this.pub.getNSquared());
+	}
+	
+	/**
+	 * Converts the ciphertext back from Montgomery form, so that results
+	 * computed from this one are ordinary encrypted integers again.
+	 */
+	public void fromMontgomeryForm() {
+		this.getCipherVal();
+		this.montval = null;
+	}
+	
+	/**
+	 * Returns true if the ciphertext is held in Montgomery form
+	 * 
+	 * @return true if the ciphertext is held in Montgomery form
+	 */
+	public boolean isMontgomeryForm() {
+		return this.montval != null;
 	}
 	
 	/**
@@ -235,20 +425,10 @@ public class EncryptedInteger implements Serializable {
 	public BigInteger decrypt(PrivateKey priv) throws BigIntegerClassNotValid {
 		// Decrypt the encrypted value
 		BigInteger plainval;
-		BigInteger c = cipherval;
-		try {
-			if (this.biCons != null)
-			c = (BigInteger) this.biCons.newInstance(cipherval);
-			
-		} catch (Exception e) {
-			throw new BigIntegerClassNotValid("Could not construct");
-		}
 		
-		plainval = c.modPow(priv.getLambda(), priv.getPublicKey().getNSquared());
-		plainval = plainval.subtract(BigInteger.ONE);
-		plainval = plainval.divide(priv.getPublicKey().getN());
-		plainval = plainval.multiply(priv.getMu());
-		plainval = plainval.mod(priv.getPublicKey().getN());
+		// Uses the Chinese Remainder Theorem when the key holds the factors,
+		// with the arithmetic backend of the private key's public key
+		plainval = priv.decrypt(this.getCipherVal());
 		
 		return plainval;
 	}
@@ -259,6 +439,10 @@ public class EncryptedInteger implements Serializable {
 	 * @return the ciphertext value
 	 */
 	public BigInteger getCipherVal() {
+		if (cipherval == null) {
+			cipherval = this.pub.getMontgomeryContext().fromMontgomery(montval);
+		}
+		
 		return cipherval;
 	}
 	
@@ -270,50 +454,43 @@ public class EncryptedInteger implements Serializable {
 		return this.pub;
 	}
 	
+	/*
+	 * Returns the ciphertext in Montgomery form, or null if it is not held
+	 * in Montgomery form. The array must not be modified.
+	 */
+	int[] getMontVal() {
+		return this.montval;
+	}
+	
 	/*
 	 * Sets the cipherval, should only be used in this package
 	 */
 	private void setCipherVal(BigInteger cipherval) {
 		this.cipherval = cipherval;
-	}
-	
-	@SuppressWarnings("rawtypes")
-	private Constructor findRngCons(Class<? extends BigInteger> c) throws BigIntegerClassNotValid {
-		Constructor cons = null;
-		for (Constructor i : c.getConstructors()) {
-			Class[] params = i.getParameterTypes();
-			if (params.length == 2 && params[0].getCanonicalName().equals("int") &&
-					params[1].getCanonicalName().equals("java.util.Random")) {
-				cons = i;
-				break;
-			}
-		}
 		
-		if (cons == null) {
-			throw new BigIntegerClassNotValid("Could not find the int, Random constructor");
+		// Keep Montgomery form if this was in Montgomery form
+		if (this.montval != null) {
+			this.montval = this.pub.getMontgomeryContext().toMontgomery(cipherval);
 		}
-		
-		return cons;
 	}
 	
-	@SuppressWarnings("rawtypes")
-	private Constructor findBICons(Class<? extends BigInteger> c) {
-		Constructor cons = null;
-		for (Constructor i : c.getConstructors()) {
-			Class[] params = i.getParameterTypes();
-			if (params.length == 1 && params[0].getCanonicalName().equals("java.math.BigInteger")) {
-				cons = i;
-				break;
-			}
-		}
-		
-		return cons;
+	/*
+	 * Sets the ciphertext in Montgomery form, cipherval is computed lazily
+	 */
+	private void setMontVal(int[] montval) {
+		this.montval = montval;
+		this.cipherval = null;
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// Only the ordinary form of the ciphertext is serialized
+		this.getCipherVal();
+		out.defaultWriteObject();
 	}
 	
 	@SuppressWarnings("unchecked")
 	private Object readResolve() throws ObjectStreamException, BigIntegerClassNotValid {
-		this.rngCons = this.findRngCons(bigi);
-		this.biCons = this.findBICons(bigi);
+		this.backend = this.pub.getArithmeticBackend(bigi);
 		
 		return this;
 	}
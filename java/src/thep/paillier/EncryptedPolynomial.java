@@ -2,6 +2,8 @@ package thep.paillier;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 import thep.paillier.exceptions.PublicKeysNotEqualException;
@@ -13,6 +15,8 @@ public class EncryptedPolynomial implements Serializable {
 	 * default serial ID
 	 */
 	private static final long serialVersionUID = 1L;
+	// below this many coefficients Horner's rule is always used
+	private static final int MULTI_EXP_DEGREE = 8;
 	private EncryptedInteger[] coefficients;
 	private PublicKey pub;
 	
@@ -26,13 +30,9 @@ public class EncryptedPolynomial implements Serializable {
 	 */
 	public EncryptedPolynomial(BigInteger[] coefficients, PublicKey pub) throws BigIntegerClassNotValid {
 		this.pub = pub;
-		this.coefficients = new EncryptedInteger[coefficients.length];
 		
-		// Encrypt each coefficient
-		for (int i=0; i < this.coefficients.length; i++) {
-			this.coefficients[i] = new EncryptedInteger(coefficients[i], 
-					this.pub);
-		}
+		// Encrypt the coefficients in parallel
+		this.coefficients = new BatchEncryptor(this.pub).encrypt(coefficients).toArray();
 	}
 	
 	/**
@@ -45,7 +45,11 @@ public class EncryptedPolynomial implements Serializable {
 	}
 	
 	/**
-	 * Evaluates an encrypted polynomial at the given point
+	 * Evaluates an encrypted polynomial at the given point using Horner's
+	 * rule, f(x) = c_0 + x*(c_1 + x*(c_2 + ...)), so each step raises the
+	 * ciphertext to the power of the point reduced mod N instead of to
+	 * ever larger powers of the point. The result is rerandomized.
+	 * 
 	 * @param point the point at which to evaluate the polynomial
 	 * @return an encrypted integer form of the polynomial evaluated at 
 	 * the given point
@@ -54,15 +58,138 @@ public class EncryptedPolynomial implements Serializable {
 	 */
 	public EncryptedInteger evaluate(BigInteger point) throws 
 			PublicKeysNotEqualException, BigIntegerClassNotValid {
-		EncryptedInteger accum = new EncryptedInteger(BigInteger.ZERO, pub);
+		if (this.coefficients.length == 0) {
+			return new EncryptedInteger(BigInteger.ZERO, this.pub);
+		}
+		this.checkPublicKeys();
+		
+		EncryptedInteger result = EncryptedInteger.fromCipherVal(
+				this.horner(point.mod(this.pub.getN())), this.pub);
+		result.rerandomize();
+		
+		return result;
+	}
+	
+	/**
+	 * Evaluates an encrypted polynomial at many points in parallel, using
+	 * the common ForkJoin pool. Each result is rerandomized, like the
+	 * result of evaluate().
+	 * 
+	 * @param points the points at which to evaluate the polynomial
+	 * @return the encrypted values at each point, in the same order
+	 * @throws PublicKeysNotEqualException
+	 * @throws BigIntegerClassNotValid 
+	 * @see #evaluateAll(BigInteger[], boolean, ForkJoinPool)
+	 */
+	public EncryptedInteger[] evaluateAll(BigInteger[] points) throws 
+			PublicKeysNotEqualException, BigIntegerClassNotValid {
+		return this.evaluateAll(points, true, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Evaluates an encrypted polynomial at many points in parallel. Short
+	 * points are evaluated with Horner's rule, whose cost grows with the
+	 * length of the point. Points longer than half of N are evaluated as
+	 * one multi-exponentiation of the coefficients by the powers of the
+	 * point; the coefficients are converted to Montgomery form once and
+	 * shared by all such points.
+	 * 
+	 * Without rerandomization a result is a deterministic function of the
+	 * point and the coefficients, so it should only be used when the
+	 * results are rerandomized or combined further before being sent.
+	 * 
+	 * @param points the points at which to evaluate the polynomial
+	 * @param rerandomize true to rerandomize each result
+	 * @param pool the pool to run the evaluations in
+	 * @return the encrypted values at each point, in the same order
+	 * @throws PublicKeysNotEqualException
+	 * @throws BigIntegerClassNotValid 
+	 */
+	public EncryptedInteger[] evaluateAll(final BigInteger[] points, final boolean rerandomize, 
+			ForkJoinPool pool) throws PublicKeysNotEqualException, BigIntegerClassNotValid {
+		final EncryptedInteger[] results = new EncryptedInteger[points.length];
+		if (this.coefficients.length == 0) {
+			for (int i=0; i < results.length; i++) {
+				results[i] = new EncryptedInteger(BigInteger.ZERO, this.pub);
+			}
+			return results;
+		}
+		this.checkPublicKeys();
+		
+		final BigInteger N = this.pub.getN();
+		final MontgomeryContext ctx = this.pub.getMontgomeryContext();
+		final int[][] bases = new int[this.coefficients.length][];
+		boolean needs_bases = false;
+		for (BigInteger point : points) {
+			needs_bases |= this.useMultiExponentiation(point.mod(N));
+		}
+		if (needs_bases) {
+			for (int i=0; i < bases.length; i++) {
+				bases[i] = ctx.toMontgomery(this.coefficients[i].getCipherVal());
+			}
+		}
+		
+		pool.submit(() -> IntStream.range(0, points.length).parallel().forEach(j -> {
+			BigInteger x = points[j].mod(N);
+			BigInteger value;
+			
+			if (this.useMultiExponentiation(x)) {
+				// exponents[i] = x^i mod N
+				BigInteger[] exponents = new BigInteger[bases.length];
+				exponents[0] = BigInteger.ONE;
+				for (int i=1; i < exponents.length; i++) {
+					exponents[i] = exponents[i-1].multiply(x).mod(N);
+				}
+				value = MultiExponentiation.compute(ctx, bases, exponents);
+			}
+			else {
+				value = this.horner(x);
+			}
+			
+			results[j] = EncryptedInteger.fromCipherVal(value, this.pub);
+			if (rerandomize) {
+				results[j].blind();
+			}
+		})).join();
+		
+		return results;
+	}
+	
+	/*
+	 * Horner's rule in the ciphertext domain, x must already be reduced
+	 */
+	private BigInteger horner(BigInteger x) {
+		ArithmeticBackend backend = this.pub.getArithmeticBackend();
+		BigInteger N_squared = this.pub.getNSquared();
+		int d = this.coefficients.length - 1;
 		
-		for (int i=0; i < this.coefficients.length; i++) {
-			accum = accum.add(this.coefficients[i].multiply(point.pow(i)));
+		BigInteger accum = this.coefficients[d].getCipherVal();
+		for (int i=d-1; i>=0; i--) {
+			accum = backend.modPow(accum, x, N_squared);
+			accum = backend.modMultiply(accum, this.coefficients[i].getCipherVal(), N_squared);
 		}
 		
 		return accum;
 	}
 	
+	/*
+	 * Horner's rule costs one exponentiation by x per coefficient, so it
+	 * is used for short points and for low degrees
+	 */
+	private boolean useMultiExponentiation(BigInteger x) {
+		return this.coefficients.length >= MULTI_EXP_DEGREE && 
+				x.bitLength() > this.pub.getN().bitLength() / 2;
+	}
+	
+	private void checkPublicKeys() throws PublicKeysNotEqualException {
+		for (EncryptedInteger c : this.coefficients) {
+			if (!this.pub.equals(c.getPublicKey())) {
+				throw new PublicKeysNotEqualException("All coefficients must " +
+						"be encrypted with the same public key");
+			}
+		}
+	}
+	
 	/**
 	 * Adds two encrypted polynomials together
 	 * @param other the other polynomial to add to this
@@ -115,42 +242,90 @@ public class EncryptedPolynomial implements Serializable {
 	}
 	
 	/**
-	 * Multiplies an encrypted polynomial by a known polynomial
+	 * Multiplies an encrypted polynomial by a known polynomial of any
+	 * degree, computing the coefficients of the product in parallel in the
+	 * common ForkJoin pool
+	 * 
 	 * @param plain_coefficients the coefficients of the plain text polynomial
 	 * @return an encrypted polynomial equal to this multiplied by the given plain
 	 * text polynomial
-	 * @throws SizesNotEqualException
+	 * @throws SizesNotEqualException if either polynomial has no coefficients
 	 * @throws PublicKeysNotEqualException
 	 * @throws BigIntegerClassNotValid 
+	 * @see #multiply(BigInteger[], ForkJoinPool)
 	 */
 	public EncryptedPolynomial multiply(BigInteger[] plain_coefficients) throws
 			SizesNotEqualException, PublicKeysNotEqualException, BigIntegerClassNotValid {
-		// Check sizes
-		if (this.coefficients.length != plain_coefficients.length)
+		return this.multiply(plain_coefficients, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Multiplies an encrypted polynomial by a known polynomial of any
+	 * degree. Coefficient l of the product is the encrypted sum of
+	 * c_i * p_(l-i), which is computed as one multi-exponentiation of the
+	 * encrypted coefficients; the coefficients are converted to Montgomery
+	 * form once and shared by every output coefficient. The output
+	 * coefficients are computed in parallel and are not rerandomized.
+	 * 
+	 * @param plain_coefficients the coefficients of the plain text polynomial
+	 * @param pool the pool to compute the coefficients in
+	 * @return an encrypted polynomial equal to this multiplied by the given plain
+	 * text polynomial
+	 * @throws SizesNotEqualException if either polynomial has no coefficients
+	 * @throws PublicKeysNotEqualException
+	 * @throws BigIntegerClassNotValid 
+	 */
+	public EncryptedPolynomial multiply(final BigInteger[] plain_coefficients, ForkJoinPool pool) throws
+			SizesNotEqualException, PublicKeysNotEqualException, BigIntegerClassNotValid {
+		if (this.coefficients.length == 0 || plain_coefficients.length == 0)
 			throw new SizesNotEqualException("To multiply an encrypted " +
-					"polynomial by a known polynomial, they must have the " +
-					"same number of coefficients");
+					"polynomial by a known polynomial, both must have at " +
+					"least one coefficient");
+		this.checkPublicKeys();
 		
-		EncryptedPolynomial tmp = new EncryptedPolynomial(this);
-		EncryptedInteger[] tmp_coefficients = 
-			new EncryptedInteger[this.coefficients.length*2-1];
-		
-		for (int i=1; i <= this.coefficients.length; i++) {
-			for (int j=1; j <= plain_coefficients.length; j++) {
-				int l = i+j-2;
-				
-				EncryptedInteger tmp2 = 
-					this.coefficients[i-1].multiply(plain_coefficients[j-1]);
-				
-				if (tmp_coefficients[l] == null) {
-					tmp_coefficients[l] = tmp2;
-				}
-				else {
-					tmp_coefficients[l] = tmp_coefficients[l].add(tmp2);
-				}
+		final int n = this.coefficients.length;
+		final int m = plain_coefficients.length;
+		final BigInteger[] ciphertexts = new BigInteger[n];
+		for (int i=0; i < n; i++) {
+			ciphertexts[i] = this.coefficients[i].getCipherVal();
+		}
+		
+		// Only worth converting if some output coefficient is long enough
+		// to use the Montgomery multi-exponentiation
+		int[][] mont = null;
+		if (Math.min(n, m) >= MultiExponentiation.MIN_TERMS) {
+			MontgomeryContext ctx = this.pub.getMontgomeryContext();
+			mont = new int[n][];
+			for (int i=0; i < n; i++) {
+				mont[i] = ctx.toMontgomery(ciphertexts[i]);
 			}
 		}
+		final int[][] bases = mont;
 		
+		final EncryptedInteger[] tmp_coefficients = new EncryptedInteger[n+m-1];
+		pool.submit(() -> IntStream.range(0, tmp_coefficients.length).parallel().forEach(l -> {
+			// Terms c_i * p_(l-i) for max(0, l-m+1) <= i <= min(l, n-1)
+			int low = Math.max(0, l-m+1);
+			int terms = Math.min(l, n-1) - low + 1;
+			
+			BigInteger[] weights = new BigInteger[terms];
+			for (int k=0; k < terms; k++) {
+				weights[k] = plain_coefficients[l-low-k];
+			}
+			
+			BigInteger[] c = new BigInteger[terms];
+			System.arraycopy(ciphertexts, low, c, 0, terms);
+			int[][] b = null;
+			if (bases != null) {
+				b = new int[terms][];
+				System.arraycopy(bases, low, b, 0, terms);
+			}
+			
+			BigInteger value = CiphertextBatch.weightedSum(this.pub, c, b, weights);
+			tmp_coefficients[l] = EncryptedInteger.fromCipherVal(value, this.pub);
+		})).join();
+		
+		EncryptedPolynomial tmp = new EncryptedPolynomial(this);
 		tmp.setCoefficients(tmp_coefficients);
 		return tmp;
 	}
@@ -0,0 +1,238 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class KeyGenerator {
+	// certainty passed to isProbablePrime
+	private static final int CERTAINTY = 64;
+	// number of odd candidates tried from one random starting point
+	private static final int SEARCH_LENGTH = 4096;
+	// odd primes used to sieve candidates before the probable prime test
+	private static final int[] SMALL_PRIMES = KeyGenerator.smallPrimes(32768);
+	
+	private int bits;
+	private int threads;
+	
+	/**
+	 * Constructs a key generator which uses one thread per available
+	 * processor.
+	 * 
+	 * @param bits the number of bits for the keys
+	 */
+	public KeyGenerator(int bits) {
+		this(bits, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs a key generator which searches for primes on the given
+	 * number of threads.
+	 * 
+	 * @param bits the number of bits for the keys, must be even
+	 * @param threads the number of threads to search with
+	 */
+	public KeyGenerator(int bits, int threads) {
+		if (bits < 256 || bits % 2 != 0) {
+			throw new IllegalArgumentException("The number of bits must be even and at least 256");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed");
+		}
+		
+		this.bits = bits;
+		this.threads = threads;
+	}
+	
+	/**
+	 * Starts generating a private key in the background. Cancelling the
+	 * returned future stops the search.
+	 * 
+	 * @return a future which will hold the new private key
+	 */
+	public Future<PrivateKey> start() {
+		Search search = new Search();
+		
+		for (int i=0; i<this.threads; i++) {
+			Thread t = new Thread(search, "thep-keygen-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		return search.result;
+	}
+	
+	/**
+	 * Generates a private key, waiting until it is done
+	 * 
+	 * @return the new private key
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public PrivateKey generate() throws InterruptedException {
+		Future<PrivateKey> future = this.start();
+		
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Key generation failed", e.getCause());
+		} finally {
+			future.cancel(true);
+		}
+	}
+	
+	/**
+	 * Generates a private key, giving up after the timeout
+	 * 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return the new private key
+	 * @throws InterruptedException if the calling thread is interrupted
+	 * @throws TimeoutException if no key was found in time
+	 */
+	public PrivateKey generate(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		Future<PrivateKey> future = this.start();
+		
+		try {
+			return future.get(timeout, unit);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Key generation failed", e.getCause());
+		} finally {
+			future.cancel(true);
+		}
+	}
+	
+	/*
+	 * The state shared by the threads searching for one key
+	 */
+	private class Search implements Runnable {
+		private final CompletableFuture<PrivateKey> result = new CompletableFuture<PrivateKey>();
+		private final List<BigInteger> primes = new ArrayList<BigInteger>();
+		
+		public void run() {
+			Random rng = new SecureRandom();
+			
+			try {
+				while (!this.result.isDone()) {
+					BigInteger prime = this.searchPrime(rng);
+					if (prime != null) {
+						this.offer(prime);
+					}
+				}
+			} catch (Throwable e) {
+				// Complete the future even for an Error, otherwise generate()
+				// would wait forever
+				this.result.completeExceptionally(e);
+				if (e instanceof Error) {
+					throw (Error) e;
+				}
+			}
+		}
+		
+		/*
+		 * Pairs the prime with one found earlier, completing the key if the
+		 * pair is acceptable
+		 */
+		private synchronized void offer(BigInteger prime) {
+			if (this.result.isDone()) {
+				return;
+			}
+			
+			for (BigInteger other : this.primes) {
+				if (KeyGenerator.this.acceptable(prime, other)) {
+					this.result.complete(new PrivateKey(bits, prime, other));
+					return;
+				}
+			}
+			
+			this.primes.add(prime);
+		}
+		
+		/*
+		 * Searches for a prime of bits/2 bits with the top two bits set, so
+		 * the modulus has exactly the requested length. Returns null if
+		 * the search was cancelled or no prime was found near the random
+		 * starting point.
+		 */
+		private BigInteger searchPrime(Random rng) {
+			int prime_bits = bits/2;
+			BigInteger start = new BigInteger(prime_bits, rng);
+			start = start.setBit(prime_bits-1).setBit(prime_bits-2).setBit(0);
+			
+			// Sieve the candidates start, start+2, ... by small primes
+			int[] residues = new int[SMALL_PRIMES.length];
+			for (int i=0; i<residues.length; i++) {
+				residues[i] = start.mod(BigInteger.valueOf(SMALL_PRIMES[i])).intValue();
+			}
+			
+			for (int offset=0; offset<2*SEARCH_LENGTH; offset+=2) {
+				if (this.result.isDone()) {
+					return null;
+				}
+				
+				boolean composite = false;
+				for (int i=0; i<residues.length; i++) {
+					if ((residues[i] + offset) % SMALL_PRIMES[i] == 0) {
+						composite = true;
+						break;
+					}
+				}
+				
+				if (!composite) {
+					BigInteger candidate = start.add(BigInteger.valueOf(offset));
+					if (candidate.bitLength() == prime_bits && candidate.isProbablePrime(CERTAINTY)) {
+						return candidate;
+					}
+				}
+			}
+			
+			return null;
+		}
+	}
+	
+	/*
+	 * Checks that p and q are far enough apart and that
+	 * gcd(pq, (p-1)(q-1)) = 1
+	 */
+	private boolean acceptable(BigInteger p, BigInteger q) {
+		BigInteger min_distance = BigInteger.ONE.shiftLeft(this.bits/2 - 100);
+		if (p.subtract(q).abs().compareTo(min_distance) <= 0) {
+			return false;
+		}
+		
+		BigInteger n = p.multiply(q);
+		BigInteger phi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+		
+		return n.gcd(phi).equals(BigInteger.ONE);
+	}
+	
+	/*
+	 * Returns the odd primes less than max
+	 */
+	private static int[] smallPrimes(int max) {
+		boolean[] composite = new boolean[max];
+		List<Integer> tmp = new ArrayList<Integer>();
+		
+		for (int i=3; i<max; i+=2) {
+			if (!composite[i]) {
+				tmp.add(i);
+				for (int j=i*i; j<max; j+=2*i) {
+					composite[j] = true;
+				}
+			}
+		}
+		
+		int[] primes = new int[tmp.size()];
+		for (int i=0; i<primes.length; i++) {
+			primes[i] = tmp.get(i);
+		}
+		
+		return primes;
+	}
+}
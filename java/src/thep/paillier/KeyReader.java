@@ -0,0 +1,246 @@
+package thep.paillier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads public and private keys in the binary key format written by
+ * KeyWriter. Key store files holding many keys can be memory-mapped with
+ * open(File), so keys are parsed straight out of the page cache without any
+ * object deserialization.
+ * 
+ * @see KeyWriter
+ */
+public class KeyReader {
+	private ByteBuffer buffer;
+	
+	/**
+	 * Constructs a key reader over the given buffer, which must start with
+	 * the file header
+	 * 
+	 * @param buffer the buffer containing the keys
+	 * @throws IOException if the header is not valid
+	 */
+	public KeyReader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.slice();
+		
+		if (this.buffer.remaining() < KeyWriter.HEADER_LENGTH || 
+				this.buffer.getInt() != KeyWriter.MAGIC) {
+			throw new IOException("Not a key file");
+		}
+		
+		short version = this.buffer.getShort();
+		if (version != KeyWriter.VERSION) {
+			throw new IOException("Unsupported key file version " + version);
+		}
+		this.buffer.getShort(); // reserved
+	}
+	
+	/**
+	 * Memory-maps the given key file and returns a reader for it
+	 * 
+	 * @param file the key file
+	 * @return a key reader for the file
+	 * @throws IOException
+	 */
+	public static KeyReader open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		
+		try {
+			FileChannel channel = raf.getChannel();
+			
+			// The mapping stays valid after the channel is closed
+			return new KeyReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Returns true if there are more keys to read
+	 * 
+	 * @return true if there are more keys to read
+	 */
+	public boolean hasNext() {
+		return this.buffer.hasRemaining();
+	}
+	
+	/**
+	 * Returns true if the next record holds a private key
+	 * 
+	 * @return true if the next record holds a private key, false if it
+	 * holds a public key or there are no more keys
+	 */
+	public boolean isPrivateKeyNext() {
+		return this.hasNext() && this.buffer.get(this.buffer.position()) == KeyWriter.PRIVATE_KEY;
+	}
+	
+	/**
+	 * Reads the next key as a public key. If the next record holds a private
+	 * key, only its public part is returned.
+	 * 
+	 * @return the public key
+	 * @throws IOException if the record is not valid
+	 */
+	public PublicKey readPublicKey() throws IOException {
+		boolean isPrivateKey = this.isPrivateKeyNext();
+		ByteBuffer record = this.nextRecord();
+		
+		try {
+			int bits = record.getInt();
+			BigInteger n = KeyReader.readField(record);
+			if (!isPrivateKey) {
+				KeyReader.checkEnd(record);
+			}
+			KeyReader.checkModulus(bits, n);
+			
+			return new PublicKey(bits, n);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated key record");
+		}
+	}
+	
+	/**
+	 * Reads the next key as a private key
+	 * 
+	 * @return the private key
+	 * @throws IOException if the record is not valid, its values do not
+	 * belong together, or it holds a public key
+	 */
+	public PrivateKey readPrivateKey() throws IOException {
+		if (this.hasNext() && !this.isPrivateKeyNext()) {
+			throw new IOException("The next key record is not a private key");
+		}
+		
+		ByteBuffer record = this.nextRecord();
+		
+		try {
+			int bits = record.getInt();
+			BigInteger n = KeyReader.readField(record);
+			BigInteger p = KeyReader.readField(record);
+			BigInteger q = KeyReader.readField(record);
+			BigInteger hp = KeyReader.readField(record);
+			BigInteger hq = KeyReader.readField(record);
+			BigInteger q_inverse = KeyReader.readField(record);
+			BigInteger q_squared_inverse = KeyReader.readField(record);
+			BigInteger mu = KeyReader.readField(record);
+			KeyReader.checkEnd(record);
+			
+			KeyReader.checkModulus(bits, n);
+			BigInteger p_squared = p.multiply(p);
+			BigInteger lambda = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+			if (!p.multiply(q).equals(n) || 
+					!hp.multiply(q).mod(p).equals(p.subtract(BigInteger.ONE)) ||
+					!hq.multiply(p).mod(q).equals(q.subtract(BigInteger.ONE)) ||
+					!q.multiply(q_inverse).mod(p).equals(BigInteger.ONE) ||
+					!q.multiply(q).multiply(q_squared_inverse).mod(p_squared).equals(BigInteger.ONE) ||
+					!lambda.multiply(mu).mod(n).equals(BigInteger.ONE)) {
+				throw new IOException("Inconsistent private key record");
+			}
+			
+			return new PrivateKey(bits, n, p, q, hp, hq, q_inverse, q_squared_inverse, mu);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated key record");
+		}
+	}
+	
+	/**
+	 * Reads all of the remaining keys as public keys
+	 * 
+	 * @return the public keys
+	 * @throws IOException if a record is not valid
+	 */
+	public List<PublicKey> readPublicKeys() throws IOException {
+		List<PublicKey> keys = new ArrayList<PublicKey>();
+		
+		while (this.hasNext()) {
+			keys.add(this.readPublicKey());
+		}
+		
+		return keys;
+	}
+	
+	/**
+	 * Reads all of the remaining keys as private keys
+	 * 
+	 * @return the private keys
+	 * @throws IOException if a record is not valid or holds a public key
+	 */
+	public List<PrivateKey> readPrivateKeys() throws IOException {
+		List<PrivateKey> keys = new ArrayList<PrivateKey>();
+		
+		while (this.hasNext()) {
+			keys.add(this.readPrivateKey());
+		}
+		
+		return keys;
+	}
+	
+	/*
+	 * Returns a buffer holding the body of the next record, and moves past it
+	 */
+	private ByteBuffer nextRecord() throws IOException {
+		try {
+			byte type = this.buffer.get();
+			if (type != KeyWriter.PUBLIC_KEY && type != KeyWriter.PRIVATE_KEY) {
+				throw new IOException("Unknown key record type " + type);
+			}
+			
+			int length = this.buffer.getInt();
+			if (length < 0 || length > this.buffer.remaining()) {
+				throw new IOException("Truncated key record");
+			}
+			
+			ByteBuffer record = this.buffer.slice();
+			record.limit(length);
+			this.buffer.position(this.buffer.position() + length);
+			
+			return record;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated key record");
+		}
+	}
+	
+	/*
+	 * Checks that the modulus is a product of two bits/2 bit primes, as
+	 * made by KeyGenerator and PrivateKey(int), so it has 2*(bits/2) bits,
+	 * or one bit less when the top bits of the primes are not both set
+	 */
+	private static void checkModulus(int bits, BigInteger n) throws IOException {
+		int length = bits/2 * 2;
+		if (n.bitLength() != length && n.bitLength() != length - 1) {
+			throw new IOException("The modulus does not have " + bits + " bits");
+		}
+	}
+	
+	/*
+	 * Checks that all of the record has been read
+	 */
+	private static void checkEnd(ByteBuffer record) throws IOException {
+		if (record.hasRemaining()) {
+			throw new IOException("Unexpected data at the end of the key record");
+		}
+	}
+	
+	/*
+	 * Reads one length-prefixed magnitude
+	 */
+	private static BigInteger readField(ByteBuffer record) throws IOException {
+		int length = record.getInt();
+		if (length < 0 || length > record.remaining()) {
+			throw new IOException("Truncated key record");
+		}
+		
+		byte[] magnitude = new byte[length];
+		record.get(magnitude);
+		
+		return new BigInteger(1, magnitude);
+	}
+}
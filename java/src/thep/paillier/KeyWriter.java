@@ -0,0 +1,136 @@
+package thep.paillier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+
+/**
+ * Writes public and private keys in the binary key format. A key file
+ * starts with a fixed header followed by any number of key records:
+ * 
+ * <pre>
+ * header: magic "THEK" (4 bytes), version (2 bytes), reserved (2 bytes)
+ * record: type (1 byte), length of the rest of the record (4 bytes),
+ *         bits (4 bytes), fields
+ * field:  length (4 bytes), unsigned big-endian magnitude
+ * </pre>
+ * 
+ * A public key record holds n. A private key record holds n, p, q, hp, hq,
+ * q^-1 mod p, q^-2 mod p^2 and mu, so that loading the key does not need to
+ * compute any inverses. All integers are big-endian.
+ */
+public class KeyWriter implements Closeable {
+	static final int MAGIC = 0x5448454B; // "THEK"
+	static final short VERSION = 1;
+	static final byte PUBLIC_KEY = 1;
+	static final byte PRIVATE_KEY = 2;
+	static final int HEADER_LENGTH = 8;
+	
+	private DataOutputStream out;
+	
+	/**
+	 * Constructs a key writer and writes the file header to the stream
+	 * 
+	 * @param out the stream to write the keys to
+	 * @throws IOException
+	 */
+	public KeyWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.out.writeInt(MAGIC);
+		this.out.writeShort(VERSION);
+		this.out.writeShort(0);
+	}
+	
+	/**
+	 * Writes a public key record
+	 * 
+	 * @param pub the public key to write
+	 * @throws IOException
+	 */
+	public void write(PublicKey pub) throws IOException {
+		this.writeRecord(PUBLIC_KEY, pub.getBits(), new BigInteger[] {pub.getN()});
+	}
+	
+	/**
+	 * Writes a private key record
+	 * 
+	 * @param priv the private key to write
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the private key does not contain
+	 * the factors of n, which is the case for keys serialized by older
+	 * versions
+	 */
+	public void write(PrivateKey priv) throws IOException {
+		if (!priv.hasFactors()) {
+			throw new IllegalArgumentException("The private key does not contain the factors of n");
+		}
+		
+		BigInteger p = priv.getP();
+		BigInteger q_squared_inverse = priv.getQSquaredInverse();
+		if (q_squared_inverse == null) {
+			BigInteger q = priv.getQ();
+			q_squared_inverse = q.multiply(q).modInverse(p.multiply(p));
+		}
+		
+		BigInteger[] fields = {priv.getPublicKey().getN(), p, priv.getQ(), 
+				priv.getHp(), priv.getHq(), priv.getQInverse(), 
+				q_squared_inverse, priv.getMu()};
+		this.writeRecord(PRIVATE_KEY, priv.getPublicKey().getBits(), fields);
+	}
+	
+	/**
+	 * Flushes the underlying stream
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+	
+	/**
+	 * Closes the underlying stream
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.out.close();
+	}
+	
+	/*
+	 * Writes one record, prefixed with its type and length
+	 */
+	private void writeRecord(byte type, int bits, BigInteger[] fields) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream tmp = new DataOutputStream(record);
+		
+		tmp.writeInt(bits);
+		for (BigInteger field : fields) {
+			byte[] magnitude = KeyWriter.toMagnitude(field);
+			tmp.writeInt(magnitude.length);
+			tmp.write(magnitude);
+		}
+		tmp.flush();
+		
+		this.out.writeByte(type);
+		this.out.writeInt(record.size());
+		record.writeTo(this.out);
+	}
+	
+	/*
+	 * Returns the unsigned big-endian magnitude of a non-negative integer
+	 */
+	static byte[] toMagnitude(BigInteger x) {
+		byte[] bytes = x.toByteArray();
+		
+		if (bytes.length > 1 && bytes[0] == 0) {
+			byte[] tmp = new byte[bytes.length-1];
+			System.arraycopy(bytes, 1, tmp, 0, tmp.length);
+			bytes = tmp;
+		}
+		
+		return bytes;
+	}
+}
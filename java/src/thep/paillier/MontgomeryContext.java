@@ -0,0 +1,397 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+
+/**
+ * Montgomery arithmetic modulo an odd modulus, normally N Squared. Values
+ * are held as little-endian arrays of 32-bit limbs in Montgomery form
+ * (x*R mod m), so a chain of multiplications needs no division; values are
+ * only converted back when they are needed as ordinary integers.
+ *
+ * The context uses one more limb than the modulus needs, so R > 4m. This
+ * lets every product skip the final conditional subtraction: as long as
+ * the inputs are less than 2m, so is the output (lazy reduction). Values
+ * are fully reduced when they are converted back.
+ *
+ * A context is immutable and may be shared between threads. The methods
+ * taking a scratch array do not allocate; the scratch array must hold at
+ * least getScratchLength() limbs and must not be shared between threads.
+ */
+public class MontgomeryContext {
+	private static final long MASK = 0xffffffffL;
+	
+	private BigInteger modulus;
+	private int[] mod;
+	private int limbs;
+	private int n_prime; // -m^-1 mod 2^32
+	private int[] one; // R mod m
+	private int[] r_squared; // R^2 mod m
+	
+	/**
+	 * Constructs a context for the given odd modulus
+	 * 
+	 * @param modulus the modulus, must be odd and positive
+	 */
+	public MontgomeryContext(BigInteger modulus) {
+		if (modulus.signum() <= 0 || !modulus.testBit(0)) {
+			throw new IllegalArgumentException("The modulus must be odd and positive");
+		}
+		
+		this.modulus = modulus;
+		// Leave at least two spare bits so that R > 4m
+		this.limbs = (modulus.bitLength() + 2 + 31) / 32;
+		this.mod = this.toLimbs(modulus);
+		
+		// -m^-1 mod 2^32 by Newton iteration, each step doubles the correct bits
+		int m0 = this.mod[0];
+		int inv = m0;
+		for (int i=0; i<5; i++) {
+			inv *= 2 - m0 * inv;
+		}
+		this.n_prime = -inv;
+		
+		BigInteger r = BigInteger.ONE.shiftLeft(32 * this.limbs);
+		this.one = this.toLimbs(r.mod(modulus));
+		this.r_squared = this.toLimbs(r.multiply(r).mod(modulus));
+	}
+	
+	/**
+	 * Returns the modulus
+	 * @return the modulus
+	 */
+	public BigInteger getModulus() {
+		return this.modulus;
+	}
+	
+	/**
+	 * Returns the number of limbs in each value
+	 * @return the number of limbs in each value
+	 */
+	public int getLimbs() {
+		return this.limbs;
+	}
+	
+	/**
+	 * Returns the number of limbs needed in a scratch array
+	 * @return the number of limbs needed in a scratch array
+	 */
+	public int getScratchLength() {
+		return this.limbs + 2;
+	}
+	
+	/**
+	 * Returns a new scratch array for use with this context
+	 * @return a new scratch array
+	 */
+	public int[] newScratch() {
+		return new int[this.getScratchLength()];
+	}
+	
+	/**
+	 * Returns the Montgomery form of one (R mod m)
+	 * @return a new array holding the Montgomery form of one
+	 */
+	public int[] one() {
+		return this.one.clone();
+	}
+	
+	/**
+	 * Converts x to Montgomery form, by a Montgomery multiplication with
+	 * R^2 mod m rather than a division
+	 * 
+	 * @param x the value to convert
+	 * @return x*R mod m as limbs, which may not be fully reduced
+	 */
+	public int[] toMontgomery(BigInteger x) {
+		if (x.signum() < 0 || x.compareTo(this.modulus) >= 0) {
+			x = x.mod(this.modulus);
+		}
+		
+		return this.multiply(this.toLimbs(x), this.r_squared);
+	}
+	
+	/**
+	 * Converts limbs to Montgomery form without allocating. The output may
+	 * be the same array as the input.
+	 * 
+	 * @param a the value to convert, less than 2m
+	 * @param out where to store a*R mod m, which will be less than 2m
+	 * @param scratch a scratch array
+	 */
+	public void toMontgomery(int[] a, int[] out, int[] scratch) {
+		this.multiply(a, this.r_squared, out, scratch);
+	}
+	
+	/**
+	 * Converts a value out of Montgomery form
+	 * 
+	 * @param a the value in Montgomery form
+	 * @return a*R^-1 mod m
+	 */
+	public BigInteger fromMontgomery(int[] a) {
+		int[] out = new int[this.limbs];
+		int[] b = new int[this.limbs];
+		b[0] = 1;
+		this.multiply(a, b, out, this.newScratch());
+		
+		BigInteger x = this.toBigInteger(out);
+		if (x.compareTo(this.modulus) >= 0) {
+			x = x.subtract(this.modulus);
+		}
+		
+		return x;
+	}
+	
+	/**
+	 * Multiplies two values in Montgomery form
+	 * 
+	 * @param a the first value
+	 * @param b the second value
+	 * @return a*b*R^-1 mod m
+	 */
+	public int[] multiply(int[] a, int[] b) {
+		int[] out = new int[this.limbs];
+		this.multiply(a, b, out, this.newScratch());
+		
+		return out;
+	}
+	
+	/**
+	 * Multiplies two values in Montgomery form without allocating. The
+	 * output may be the same array as either input.
+	 * 
+	 * @param a the first value, less than 2m
+	 * @param b the second value, less than 2m
+	 * @param out where to store a*b*R^-1, which will be less than 2m
+	 * @param scratch a scratch array
+	 */
+	public void multiply(int[] a, int[] b, int[] out, int[] scratch) {
+		int s = this.limbs;
+		int[] m = this.mod;
+		int[] t = scratch;
+		
+		for (int i=0; i<s+2; i++) {
+			t[i] = 0;
+		}
+		
+		// Coarsely integrated operand scanning
+		for (int i=0; i<s; i++) {
+			// t += a * b[i]
+			long bi = b[i] & MASK;
+			long carry = 0;
+			for (int j=0; j<s; j++) {
+				long x = (t[j] & MASK) + (a[j] & MASK) * bi + carry;
+				t[j] = (int) x;
+				carry = x >>> 32;
+			}
+			long x = (t[s] & MASK) + carry;
+			t[s] = (int) x;
+			t[s+1] = (int) (x >>> 32);
+			
+			// t = (t + u*m) / 2^32, where u makes the low limb zero
+			long u = (t[0] * this.n_prime) & MASK;
+			x = (t[0] & MASK) + u * (m[0] & MASK);
+			carry = x >>> 32;
+			for (int j=1; j<s; j++) {
+				x = (t[j] & MASK) + u * (m[j] & MASK) + carry;
+				t[j-1] = (int) x;
+				carry = x >>> 32;
+			}
+			x = (t[s] & MASK) + carry;
+			t[s-1] = (int) x;
+			t[s] = t[s+1] + (int) (x >>> 32);
+		}
+		
+		// Since R > 4m and both inputs are below 2m, t < 2m and fits in s limbs
+		System.arraycopy(t, 0, out, 0, s);
+	}
+	
+	/**
+	 * Squares a value in Montgomery form
+	 * 
+	 * @param a the value
+	 * @return a*a*R^-1 mod m
+	 */
+	public int[] square(int[] a) {
+		return this.multiply(a, a);
+	}
+	
+	/**
+	 * Returns the window size to use for an exponent of the given length
+	 * 
+	 * @param bits the bit length of the exponent
+	 * @return the window size
+	 */
+	public static int windowSize(int bits) {
+		if (bits <= 24) return 1;
+		if (bits <= 80) return 3;
+		if (bits <= 240) return 4;
+		if (bits <= 672) return 5;
+		return 6;
+	}
+	
+	/**
+	 * Builds the table of odd powers base^1, base^3, ..., base^(2^w - 1)
+	 * used by sliding window exponentiation. The table can be reused for
+	 * any number of exponentiations of the same base.
+	 * 
+	 * @param base the base in Montgomery form
+	 * @param window the window size
+	 * @return the table of odd powers
+	 */
+	public int[][] powerTable(int[] base, int window) {
+		int[][] table = new int[1 << (window-1)][];
+		table[0] = base.clone();
+		
+		if (table.length > 1) {
+			int[] base_squared = this.square(base);
+			for (int i=1; i<table.length; i++) {
+				table[i] = this.multiply(table[i-1], base_squared);
+			}
+		}
+		
+		return table;
+	}
+	
+	/**
+	 * Builds the table of odd powers into existing arrays, without
+	 * allocating
+	 * 
+	 * @param base the base in Montgomery form
+	 * @param window the window size
+	 * @param table where to store the odd powers, with at least
+	 * 2^(w-1) arrays of getLimbs() limbs
+	 * @param square an array of getLimbs() limbs to hold base^2
+	 * @param scratch a scratch array
+	 * @see #powerTable(int[], int)
+	 */
+	public void powerTable(int[] base, int window, int[][] table, int[] square, int[] scratch) {
+		int size = 1 << (window-1);
+		System.arraycopy(base, 0, table[0], 0, this.limbs);
+		
+		if (size > 1) {
+			this.multiply(base, base, square, scratch);
+			for (int i=1; i<size; i++) {
+				this.multiply(table[i-1], square, table[i], scratch);
+			}
+		}
+	}
+	
+	/**
+	 * Raises a value in Montgomery form to a non-negative power
+	 * 
+	 * @param base the base in Montgomery form
+	 * @param exponent the exponent, must not be negative
+	 * @return base^exponent in Montgomery form
+	 */
+	public int[] pow(int[] base, BigInteger exponent) {
+		int window = MontgomeryContext.windowSize(exponent.bitLength());
+		int[] out = new int[this.limbs];
+		this.pow(this.powerTable(base, window), window, exponent, out, this.newScratch());
+		
+		return out;
+	}
+	
+	/**
+	 * Sliding window exponentiation using a table built by powerTable(),
+	 * without allocating
+	 * 
+	 * @param table the table of odd powers of the base
+	 * @param window the window size the table was built for
+	 * @param exponent the exponent, must not be negative
+	 * @param out where to store the result, must not be in the table
+	 * @param scratch a scratch array
+	 */
+	public void pow(int[][] table, int window, BigInteger exponent, int[] out, int[] scratch) {
+		if (exponent.signum() < 0) {
+			throw new IllegalArgumentException("The exponent must not be negative");
+		}
+		
+		System.arraycopy(this.one, 0, out, 0, this.limbs);
+		
+		int i = exponent.bitLength() - 1;
+		while (i >= 0) {
+			if (!exponent.testBit(i)) {
+				this.multiply(out, out, out, scratch);
+				i--;
+				continue;
+			}
+			
+			// Find the longest window ending in a one bit
+			int low = Math.max(i - window + 1, 0);
+			while (!exponent.testBit(low)) {
+				low++;
+			}
+			
+			int value = 0;
+			for (int j=i; j>=low; j--) {
+				this.multiply(out, out, out, scratch);
+				value = (value << 1) | (exponent.testBit(j) ? 1 : 0);
+			}
+			this.multiply(out, table[value >>> 1], out, scratch);
+			
+			i = low - 1;
+		}
+	}
+	
+	/**
+	 * Converts a non-negative integer less than R to limbs, without changing
+	 * it to Montgomery form
+	 * 
+	 * @param x the integer
+	 * @return the limbs of x
+	 */
+	public int[] toLimbs(BigInteger x) {
+		int[] a = new int[this.limbs];
+		this.toLimbs(x, a);
+		
+		return a;
+	}
+	
+	/**
+	 * Converts a non-negative integer less than R to limbs in an existing
+	 * array, without changing it to Montgomery form
+	 * 
+	 * @param x the integer
+	 * @param a where to store the limbs, with at least getLimbs() limbs
+	 */
+	public void toLimbs(BigInteger x, int[] a) {
+		byte[] bytes = x.toByteArray();
+		
+		for (int i=0; i<this.limbs; i++) {
+			a[i] = 0;
+		}
+		
+		for (int i=0; i<bytes.length; i++) {
+			int limb = i / 4;
+			if (limb >= this.limbs) {
+				if (bytes[bytes.length-1-i] != 0) {
+					throw new IllegalArgumentException("The value is too large");
+				}
+				continue;
+			}
+			a[limb] |= (bytes[bytes.length-1-i] & 0xff) << (8 * (i % 4));
+		}
+	}
+	
+	/**
+	 * Converts limbs to a non-negative integer, without changing it out of
+	 * Montgomery form
+	 * 
+	 * @param a the limbs
+	 * @return the integer
+	 */
+	public BigInteger toBigInteger(int[] a) {
+		byte[] bytes = new byte[4 * a.length + 1];
+		
+		for (int i=0; i<a.length; i++) {
+			int k = bytes.length - 1 - 4*i;
+			bytes[k] = (byte) a[i];
+			bytes[k-1] = (byte) (a[i] >>> 8);
+			bytes[k-2] = (byte) (a[i] >>> 16);
+			bytes[k-3] = (byte) (a[i] >>> 24);
+		}
+		
+		return new BigInteger(bytes);
+	}
+}
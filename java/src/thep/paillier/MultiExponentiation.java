@@ -0,0 +1,330 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+
+/**
+ * Simultaneous multi-exponentiation: computes the product of
+ * bases[i]^exponents[i] modulo the modulus of a Montgomery context while
+ * sharing the squarings between all the terms, which is much cheaper than
+ * one exponentiation per term.
+ *
+ * Straus' method (interleaved fixed windows with a table per base) is
+ * used for a few terms and Pippenger's bucket method for many terms.
+ * compute() picks whichever needs fewer multiplications, and uses plain
+ * exponentiations when there are only a few terms.
+ */
+public final class MultiExponentiation {
+	// below this many terms separate BigInteger.modPow calls are faster,
+	// since they use the intrinsics of the JDK
+	static final int MIN_TERMS = 8;
+	
+	private MultiExponentiation() {
+	}
+	
+	/**
+	 * Computes the product of bases[i]^exponents[i] mod m, using the method
+	 * which needs fewer multiplications
+	 * 
+	 * @param ctx the Montgomery context for the modulus m
+	 * @param bases the bases, each less than m
+	 * @param exponents the exponents, which must not be negative
+	 * @return the product, less than m
+	 */
+	public static BigInteger compute(MontgomeryContext ctx, BigInteger[] bases, BigInteger[] exponents) {
+		MultiExponentiation.checkExponents(bases.length, exponents);
+		int n = bases.length;
+		
+		if (n < MIN_TERMS) {
+			BigInteger m = ctx.getModulus();
+			BigInteger result = BigInteger.ONE;
+			for (int i=0; i<n; i++) {
+				result = result.multiply(bases[i].modPow(exponents[i], m)).mod(m);
+			}
+			
+			return result;
+		}
+		
+		return MultiExponentiation.compute(ctx, MultiExponentiation.toMontgomery(ctx, bases), exponents);
+	}
+	
+	/**
+	 * Computes the product of bases[i]^exponents[i] mod m for bases which
+	 * are already in Montgomery form, so they can be converted once and
+	 * reused for many multi-exponentiations. Uses the method which needs
+	 * fewer multiplications.
+	 * 
+	 * @param ctx the Montgomery context for the modulus m
+	 * @param bases the bases in Montgomery form
+	 * @param exponents the exponents, which must not be negative
+	 * @return the product, less than m
+	 */
+	public static BigInteger compute(MontgomeryContext ctx, int[][] bases, BigInteger[] exponents) {
+		int bits = MultiExponentiation.checkExponents(bases.length, exponents);
+		int n = bases.length;
+		
+		int straus_window = MultiExponentiation.strausWindow(n, bits);
+		int pippenger_window = MultiExponentiation.pippengerWindow(n, bits);
+		
+		if (MultiExponentiation.strausCost(n, bits, straus_window) <= 
+				MultiExponentiation.pippengerCost(n, bits, pippenger_window)) {
+			return MultiExponentiation.straus(ctx, bases, exponents, bits, straus_window);
+		}
+		
+		return MultiExponentiation.pippenger(ctx, bases, exponents, bits, pippenger_window);
+	}
+	
+	/**
+	 * Computes the product of bases[i]^exponents[i] mod m with Straus'
+	 * method. Each base gets a table of its first 2^window powers, and the
+	 * exponents are scanned together one window at a time.
+	 * 
+	 * @param ctx the Montgomery context for the modulus m
+	 * @param bases the bases, each less than m
+	 * @param exponents the exponents, which must not be negative
+	 * @param window the window size
+	 * @return the product, less than m
+	 */
+	public static BigInteger straus(MontgomeryContext ctx, BigInteger[] bases, BigInteger[] exponents, int window) {
+		int bits = MultiExponentiation.checkExponents(bases.length, exponents);
+		
+		return MultiExponentiation.straus(ctx, MultiExponentiation.toMontgomery(ctx, bases), exponents, bits, window);
+	}
+	
+	private static BigInteger straus(MontgomeryContext ctx, int[][] bases, BigInteger[] exponents, int bits, int window) {
+		int[] scratch = ctx.newScratch();
+		
+		// tables[i][d] = bases[i]^d
+		int[][][] tables = new int[bases.length][1 << window][];
+		int[][] digits = new int[bases.length][];
+		for (int i=0; i<bases.length; i++) {
+			digits[i] = MultiExponentiation.toLimbs(exponents[i]);
+			tables[i][1] = bases[i];
+			for (int d=2; d<tables[i].length; d++) {
+				tables[i][d] = ctx.multiply(tables[i][d-1], tables[i][1]);
+			}
+		}
+		
+		int[] result = ctx.one();
+		boolean started = false;
+		for (int start=MultiExponentiation.topWindow(bits, window); start>=0; start-=window) {
+			if (started) {
+				for (int s=0; s<window; s++) {
+					ctx.multiply(result, result, result, scratch);
+				}
+			}
+			
+			for (int i=0; i<bases.length; i++) {
+				int d = MultiExponentiation.digit(digits[i], start, window);
+				if (d != 0) {
+					ctx.multiply(result, tables[i][d], result, scratch);
+					started = true;
+				}
+			}
+		}
+		
+		return ctx.fromMontgomery(result);
+	}
+	
+	/**
+	 * Computes the product of bases[i]^exponents[i] mod m with Pippenger's
+	 * bucket method. For each window, every base is multiplied into the
+	 * bucket for its digit, and the buckets are combined with a running
+	 * product so bucket d contributes d times.
+	 * 
+	 * @param ctx the Montgomery context for the modulus m
+	 * @param bases the bases, each less than m
+	 * @param exponents the exponents, which must not be negative
+	 * @param window the window size
+	 * @return the product, less than m
+	 */
+	public static BigInteger pippenger(MontgomeryContext ctx, BigInteger[] bases, BigInteger[] exponents, int window) {
+		int bits = MultiExponentiation.checkExponents(bases.length, exponents);
+		
+		return MultiExponentiation.pippenger(ctx, MultiExponentiation.toMontgomery(ctx, bases), exponents, bits, window);
+	}
+	
+	private static BigInteger pippenger(MontgomeryContext ctx, int[][] mont, BigInteger[] exponents, int bits, int window) {
+		int[] scratch = ctx.newScratch();
+		
+		int[][] digits = new int[mont.length][];
+		for (int i=0; i<mont.length; i++) {
+			digits[i] = MultiExponentiation.toLimbs(exponents[i]);
+		}
+		
+		int[][] buckets = new int[1 << window][];
+		int[] running = new int[ctx.getLimbs()];
+		int[] sum = new int[ctx.getLimbs()];
+		int[] result = ctx.one();
+		boolean started = false;
+		
+		for (int start=MultiExponentiation.topWindow(bits, window); start>=0; start-=window) {
+			if (started) {
+				for (int s=0; s<window; s++) {
+					ctx.multiply(result, result, result, scratch);
+				}
+			}
+			
+			// Put each base in the bucket for its digit
+			for (int i=0; i<mont.length; i++) {
+				int d = MultiExponentiation.digit(digits[i], start, window);
+				if (d == 0) {
+					continue;
+				}
+				
+				if (buckets[d] == null) {
+					buckets[d] = mont[i].clone();
+				}
+				else {
+					ctx.multiply(buckets[d], mont[i], buckets[d], scratch);
+				}
+			}
+			
+			// sum = product of bucket[d]^d, as a product of running products
+			boolean has_running = false;
+			boolean has_sum = false;
+			for (int d=buckets.length-1; d>0; d--) {
+				if (buckets[d] != null) {
+					if (has_running) {
+						ctx.multiply(running, buckets[d], running, scratch);
+					}
+					else {
+						System.arraycopy(buckets[d], 0, running, 0, running.length);
+						has_running = true;
+					}
+					buckets[d] = null;
+				}
+				
+				if (has_running) {
+					if (has_sum) {
+						ctx.multiply(sum, running, sum, scratch);
+					}
+					else {
+						System.arraycopy(running, 0, sum, 0, sum.length);
+						has_sum = true;
+					}
+				}
+			}
+			
+			if (has_sum) {
+				ctx.multiply(result, sum, result, scratch);
+				started = true;
+			}
+		}
+		
+		return ctx.fromMontgomery(result);
+	}
+	
+	/*
+	 * Converts the bases to Montgomery form
+	 */
+	private static int[][] toMontgomery(MontgomeryContext ctx, BigInteger[] bases) {
+		int[][] mont = new int[bases.length][];
+		for (int i=0; i<bases.length; i++) {
+			mont[i] = ctx.toMontgomery(bases[i]);
+		}
+		
+		return mont;
+	}
+	
+	/*
+	 * Checks the inputs, returning the length of the longest exponent
+	 */
+	private static int checkExponents(int bases, BigInteger[] exponents) {
+		if (bases != exponents.length) {
+			throw new IllegalArgumentException("There must be one exponent per base");
+		}
+		
+		int bits = 0;
+		for (BigInteger e : exponents) {
+			if (e.signum() < 0) {
+				throw new IllegalArgumentException("The exponents must not be negative");
+			}
+			bits = Math.max(bits, e.bitLength());
+		}
+		
+		return bits;
+	}
+	
+	/*
+	 * Estimated multiplications for Straus' method: the squarings, one
+	 * table lookup per base and window, and the tables
+	 */
+	private static long strausCost(int n, int bits, int window) {
+		long windows = (bits + window - 1) / window;
+		return bits + n * windows + ((long) n << window);
+	}
+	
+	/*
+	 * Estimated multiplications for Pippenger's method: the squarings, and
+	 * per window one multiplication per base and two per bucket
+	 */
+	private static long pippengerCost(int n, int bits, int window) {
+		long windows = (bits + window - 1) / window;
+		return bits + windows * (n + (2L << window));
+	}
+	
+	private static int strausWindow(int n, int bits) {
+		int best = 1;
+		for (int w=2; w<=8; w++) {
+			if (MultiExponentiation.strausCost(n, bits, w) < MultiExponentiation.strausCost(n, bits, best)) {
+				best = w;
+			}
+		}
+		
+		return best;
+	}
+	
+	private static int pippengerWindow(int n, int bits) {
+		int best = 1;
+		for (int w=2; w<=16; w++) {
+			if (MultiExponentiation.pippengerCost(n, bits, w) < MultiExponentiation.pippengerCost(n, bits, best)) {
+				best = w;
+			}
+		}
+		
+		return best;
+	}
+	
+	/*
+	 * Returns the lowest bit of the most significant window
+	 */
+	private static int topWindow(int bits, int window) {
+		if (bits == 0) {
+			return -1;
+		}
+		
+		return ((bits - 1) / window) * window;
+	}
+	
+	/*
+	 * Returns the window bits of the exponent starting at bit start
+	 */
+	private static int digit(int[] e, int start, int window) {
+		int limb = start >>> 5;
+		int offset = start & 31;
+		if (limb >= e.length) {
+			return 0;
+		}
+		
+		long bits = e[limb] & 0xffffffffL;
+		if (offset + window > 32 && limb + 1 < e.length) {
+			bits |= (e[limb+1] & 0xffffffffL) << 32;
+		}
+		
+		return (int) (bits >>> offset) & ((1 << window) - 1);
+	}
+	
+	/*
+	 * Converts a non-negative exponent to little-endian 32-bit limbs
+	 */
+	private static int[] toLimbs(BigInteger e) {
+		int[] limbs = new int[(e.bitLength() + 31) / 32];
+		byte[] bytes = e.toByteArray();
+		
+		for (int i=0; i<bytes.length && i/4 < limbs.length; i++) {
+			limbs[i/4] |= (bytes[bytes.length-1-i] & 0xff) << (8 * (i % 4));
+		}
+		
+		return limbs;
+	}
+}
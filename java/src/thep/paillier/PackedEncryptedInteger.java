@@ -0,0 +1,204 @@
+package thep.paillier;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+import thep.paillier.exceptions.PublicKeysNotEqualException;
+import thep.paillier.exceptions.SizesNotEqualException;
+import thep.paillier.exceptions.SlotOverflowException;
+
+/**
+ * An encrypted integer holding several small values, packed into one
+ * plaintext as described by a PackingScheme. Additions and scalar
+ * multiplications apply to every slot at once, so aggregating k values per
+ * ciphertext needs k times fewer ciphertexts and decryptions.
+ *
+ * The packed integer keeps an upper bound on the value of any slot. An
+ * operation that could make a slot carry into the next one throws a
+ * SlotOverflowException instead, and getRemainingAdditions() tells how
+ * many more values can safely be added.
+ */
+public class PackedEncryptedInteger implements Serializable {
+	/**
+	 * The serial version ID
+	 */
+	private static final long serialVersionUID = 1L;
+	private EncryptedInteger value;
+	private PackingScheme scheme;
+	private BigInteger bound; // no slot is larger than this
+	
+	/**
+	 * Packs and encrypts the values
+	 * 
+	 * @param values the values, at most one per slot
+	 * @param scheme how to pack the values
+	 * @param pub the public key to encrypt with
+	 * @throws BigIntegerClassNotValid
+	 */
+	public PackedEncryptedInteger(BigInteger[] values, PackingScheme scheme, PublicKey pub) throws BigIntegerClassNotValid {
+		this(new EncryptedInteger(scheme.pack(values), pub), scheme, scheme.getMaxValue());
+	}
+	
+	/**
+	 * Packs and encrypts the values
+	 * 
+	 * @param values the values, at most one per slot
+	 * @param scheme how to pack the values
+	 * @param pub the public key to encrypt with
+	 * @throws BigIntegerClassNotValid
+	 */
+	public PackedEncryptedInteger(long[] values, PackingScheme scheme, PublicKey pub) throws BigIntegerClassNotValid {
+		this(new EncryptedInteger(scheme.pack(values), pub), scheme, scheme.getMaxValue());
+	}
+	
+	/**
+	 * Wraps an encrypted integer which already holds packed values, for
+	 * example one received from another party
+	 * 
+	 * @param value the encrypted packed plaintext
+	 * @param scheme how the values are packed
+	 * @param bound an upper bound on the value of any slot
+	 */
+	public PackedEncryptedInteger(EncryptedInteger value, PackingScheme scheme, BigInteger bound) {
+		if (bound.signum() < 0 || bound.compareTo(scheme.getCapacity()) > 0) {
+			throw new IllegalArgumentException("The bound must fit in a slot");
+		}
+		
+		this.value = value;
+		this.scheme = scheme;
+		this.bound = bound;
+	}
+	
+	/**
+	 * Adds another packed integer slot by slot
+	 * 
+	 * @param other the packed integer to add
+	 * @return a new packed integer holding the sums
+	 * @throws PublicKeysNotEqualException
+	 * @throws SizesNotEqualException if the values are packed differently
+	 * @throws SlotOverflowException if a sum could overflow its slot
+	 */
+	public PackedEncryptedInteger add(PackedEncryptedInteger other) throws PublicKeysNotEqualException, 
+			SizesNotEqualException, SlotOverflowException {
+		this.checkScheme(other.getScheme());
+		BigInteger new_bound = this.checkBound(this.bound.add(other.getBound()));
+		
+		return new PackedEncryptedInteger(this.value.add(other.getEncryptedInteger()), this.scheme, new_bound);
+	}
+	
+	/**
+	 * Adds plaintext values slot by slot
+	 * 
+	 * @param values the values to add, at most one per slot
+	 * @return a new packed integer holding the sums
+	 * @throws BigIntegerClassNotValid
+	 * @throws SlotOverflowException if a sum could overflow its slot
+	 */
+	public PackedEncryptedInteger add(BigInteger[] values) throws BigIntegerClassNotValid, SlotOverflowException {
+		BigInteger max = BigInteger.ZERO;
+		for (BigInteger v : values) {
+			max = max.max(v);
+		}
+		BigInteger new_bound = this.checkBound(this.bound.add(max));
+		
+		return new PackedEncryptedInteger(this.value.add(this.scheme.pack(values)), this.scheme, new_bound);
+	}
+	
+	/**
+	 * Multiplies every slot by a non-negative constant
+	 * 
+	 * @param k the constant
+	 * @return a new packed integer holding the products
+	 * @throws BigIntegerClassNotValid
+	 * @throws SlotOverflowException if a product could overflow its slot
+	 */
+	public PackedEncryptedInteger multiply(BigInteger k) throws BigIntegerClassNotValid, SlotOverflowException {
+		if (k.signum() < 0) {
+			throw new IllegalArgumentException("Packed values can only be multiplied by non-negative constants");
+		}
+		BigInteger new_bound = this.checkBound(this.bound.multiply(k));
+		
+		return new PackedEncryptedInteger(this.value.multiply(k), this.scheme, new_bound);
+	}
+	
+	/**
+	 * Rerandomizes the underlying encrypted integer
+	 * 
+	 * @throws BigIntegerClassNotValid
+	 */
+	public void rerandomize() throws BigIntegerClassNotValid {
+		this.value.rerandomize();
+	}
+	
+	/**
+	 * Decrypts and unpacks the values
+	 * 
+	 * @param priv the private key to use for decryption
+	 * @return the value of every slot
+	 * @throws BigIntegerClassNotValid
+	 */
+	public BigInteger[] decrypt(PrivateKey priv) throws BigIntegerClassNotValid {
+		return this.scheme.unpack(this.value.decrypt(priv));
+	}
+	
+	/**
+	 * Returns how many more freshly packed values, each at most
+	 * scheme.getMaxValue() per slot, can be added before a slot could
+	 * overflow
+	 * 
+	 * @return the number of additions that are still safe
+	 */
+	public long getRemainingAdditions() {
+		BigInteger remaining = this.scheme.getCapacity().subtract(this.bound).divide(this.scheme.getMaxValue());
+		
+		return remaining.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+	}
+	
+	/**
+	 * Returns the upper bound on the value of any slot
+	 * @return the upper bound on the value of any slot
+	 */
+	public BigInteger getBound() {
+		return this.bound;
+	}
+	
+	/**
+	 * Returns how the values are packed
+	 * @return the packing scheme
+	 */
+	public PackingScheme getScheme() {
+		return this.scheme;
+	}
+	
+	/**
+	 * Returns the encrypted packed plaintext
+	 * @return the encrypted integer holding the packed plaintext
+	 */
+	public EncryptedInteger getEncryptedInteger() {
+		return this.value;
+	}
+	
+	/**
+	 * Returns the public key associated with this packed integer
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.value.getPublicKey();
+	}
+	
+	private void checkScheme(PackingScheme other) throws SizesNotEqualException {
+		if (!this.scheme.equals(other)) {
+			throw new SizesNotEqualException("Packed integers must use the same packing scheme");
+		}
+	}
+	
+	private BigInteger checkBound(BigInteger new_bound) throws SlotOverflowException {
+		if (new_bound.compareTo(this.scheme.getCapacity()) > 0) {
+			throw new SlotOverflowException("The result could overflow a slot of " + 
+					this.scheme.getWidth() + " bits");
+		}
+		
+		return new_bound;
+	}
+}
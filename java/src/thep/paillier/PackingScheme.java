@@ -0,0 +1,177 @@
+package thep.paillier;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+
+/**
+ * Describes how several small non-negative values are packed into one
+ * plaintext. Each slot holds a value of slotBits bits followed by
+ * headroomBits extra bits, so sums and scalar multiples of slot values can
+ * grow without carrying into the next slot. Slot 0 is in the lowest bits.
+ */
+public class PackingScheme implements Serializable {
+	/**
+	 * The serial version ID
+	 */
+	private static final long serialVersionUID = 1L;
+	private int slots;
+	private int slotBits;
+	private int headroomBits;
+	
+	/**
+	 * Constructs a scheme with as many slots as fit in the plaintext space
+	 * of the public key
+	 * 
+	 * @param pub the public key the values will be encrypted with
+	 * @param slotBits the number of bits in each value
+	 * @param headroomBits the number of extra bits for carries
+	 */
+	public PackingScheme(PublicKey pub, int slotBits, int headroomBits) {
+		this(pub, slotBits, headroomBits, PackingScheme.maxSlots(pub, slotBits + headroomBits));
+	}
+	
+	/**
+	 * Constructs a scheme with the given number of slots
+	 * 
+	 * @param pub the public key the values will be encrypted with
+	 * @param slotBits the number of bits in each value
+	 * @param headroomBits the number of extra bits for carries
+	 * @param slots the number of slots
+	 */
+	public PackingScheme(PublicKey pub, int slotBits, int headroomBits, int slots) {
+		if (slotBits < 1 || headroomBits < 0) {
+			throw new IllegalArgumentException("Slots need at least one bit and headroom cannot be negative");
+		}
+		if (slots < 1 || slots > PackingScheme.maxSlots(pub, slotBits + headroomBits)) {
+			throw new IllegalArgumentException("The slots do not fit in the plaintext space");
+		}
+		
+		this.slots = slots;
+		this.slotBits = slotBits;
+		this.headroomBits = headroomBits;
+	}
+	
+	/*
+	 * The packed value must stay below n, so it never wraps around
+	 */
+	private static int maxSlots(PublicKey pub, int width) {
+		return (pub.getN().bitLength() - 1) / width;
+	}
+	
+	/**
+	 * Returns the number of slots
+	 * @return the number of slots
+	 */
+	public int getSlots() {
+		return this.slots;
+	}
+	
+	/**
+	 * Returns the number of bits in each value
+	 * @return the number of bits in each value
+	 */
+	public int getSlotBits() {
+		return this.slotBits;
+	}
+	
+	/**
+	 * Returns the number of extra bits in each slot
+	 * @return the number of extra bits in each slot
+	 */
+	public int getHeadroomBits() {
+		return this.headroomBits;
+	}
+	
+	/**
+	 * Returns the total number of bits in each slot
+	 * @return slotBits + headroomBits
+	 */
+	public int getWidth() {
+		return this.slotBits + this.headroomBits;
+	}
+	
+	/**
+	 * Returns the largest value a slot can hold, 2^width - 1
+	 * @return the largest value a slot can hold
+	 */
+	public BigInteger getCapacity() {
+		return BigInteger.ONE.shiftLeft(this.getWidth()).subtract(BigInteger.ONE);
+	}
+	
+	/**
+	 * Returns the largest value that can be packed, 2^slotBits - 1
+	 * @return the largest value that can be packed
+	 */
+	public BigInteger getMaxValue() {
+		return BigInteger.ONE.shiftLeft(this.slotBits).subtract(BigInteger.ONE);
+	}
+	
+	/**
+	 * Packs values into one plaintext. Missing values are zero.
+	 * 
+	 * @param values the values, each at least zero and at most getMaxValue()
+	 * @return the packed plaintext
+	 */
+	public BigInteger pack(BigInteger[] values) {
+		this.checkLength(values.length);
+		
+		BigInteger packed = BigInteger.ZERO;
+		for (int i=values.length-1; i>=0; i--) {
+			if (values[i].signum() < 0 || values[i].bitLength() > this.slotBits) {
+				throw new IllegalArgumentException("Value " + i + " does not fit in " + this.slotBits + " bits");
+			}
+			packed = packed.shiftLeft(this.getWidth()).or(values[i]);
+		}
+		
+		return packed;
+	}
+	
+	/**
+	 * Packs values into one plaintext. Missing values are zero.
+	 * 
+	 * @param values the values, each at least zero and at most getMaxValue()
+	 * @return the packed plaintext
+	 */
+	public BigInteger pack(long[] values) {
+		BigInteger[] tmp = new BigInteger[values.length];
+		for (int i=0; i<values.length; i++) {
+			tmp[i] = BigInteger.valueOf(values[i]);
+		}
+		
+		return this.pack(tmp);
+	}
+	
+	/**
+	 * Splits a packed plaintext into the values of its slots
+	 * 
+	 * @param packed the packed plaintext
+	 * @return the values of the slots
+	 */
+	public BigInteger[] unpack(BigInteger packed) {
+		BigInteger[] values = new BigInteger[this.slots];
+		BigInteger mask = this.getCapacity();
+		
+		for (int i=0; i<this.slots; i++) {
+			values[i] = packed.shiftRight(this.getWidth() * i).and(mask);
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Returns true if the other scheme packs values the same way
+	 * 
+	 * @param other the other scheme
+	 * @return true if the schemes are the same
+	 */
+	public boolean equals(PackingScheme other) {
+		return this.slots == other.slots && this.slotBits == other.slotBits &&
+				this.headroomBits == other.headroomBits;
+	}
+	
+	private void checkLength(int length) {
+		if (length > this.slots) {
+			throw new IllegalArgumentException("At most " + this.slots + " values can be packed");
+		}
+	}
+}
@@ -4,6 +4,8 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 
@@ -15,6 +17,19 @@ public class PrivateKey implements Serializable {
 	private PublicKey pub;
 	private BigInteger lambda;
 	private BigInteger mu;
+
+	// Values used for decryption with the Chinese Remainder Theorem. These
+	// are null for keys serialized before the factors were kept.
+	private BigInteger p;
+	private BigInteger q;
+	private BigInteger p_squared;
+	private BigInteger q_squared;
+	private BigInteger hp;
+	private BigInteger hq;
+	private BigInteger q_inverse; // q^-1 mod p
+	private BigInteger p_exponent; // n mod p(p-1)
+	private BigInteger q_exponent; // n mod q(q-1)
+	private BigInteger q_squared_inverse; // q^-2 mod p^2
 	
 	/**
 	 * Constructs a private key with the specified number of bits
@@ -30,15 +45,94 @@ public class PrivateKey implements Serializable {
 		BigInteger p = new BigInteger(bits/2, 10, rng);
 		BigInteger q = new BigInteger(bits/2, 10, rng);
 		
+		this.init(bits, p, q);
+	}
+	
+	/*
+	 * Constructs a private key from the two given primes
+	 */
+	PrivateKey(int bits, BigInteger p, BigInteger q) {
+		this.init(bits, p, q);
+	}
+	
+	/*
+	 * Constructs a private key from stored values, without recomputing any
+	 * of the inverses. Used when loading keys with KeyReader.
+	 */
+	PrivateKey(int bits, BigInteger n, BigInteger p, BigInteger q, BigInteger hp, 
+			BigInteger hq, BigInteger q_inverse, BigInteger q_squared_inverse, BigInteger mu) {
+		this.pub = new PublicKey(bits, n);
+		this.lambda = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+		this.mu = mu;
+		this.p = p;
+		this.q = q;
+		this.p_squared = p.multiply(p);
+		this.q_squared = q.multiply(q);
+		this.hp = hp;
+		this.hq = hq;
+		this.q_inverse = q_inverse;
+		this.p_exponent = n.mod(this.p_squared.subtract(p));
+		this.q_exponent = n.mod(this.q_squared.subtract(q));
+		this.q_squared_inverse = q_squared_inverse;
+	}
+	
+	/**
+	 * Generates a private key with the specified number of bits, searching
+	 * for the primes on all available processors. Unlike the constructor,
+	 * this makes sure that p and q are not too close together and that
+	 * gcd(pq, (p-1)(q-1)) = 1.
+	 * 
+	 * @param bits the number of bits for the key
+	 * @param timeout the maximum time to wait for the key
+	 * @param unit the unit of the timeout
+	 * @return the new private key
+	 * @throws InterruptedException if the calling thread is interrupted
+	 * @throws TimeoutException if the key could not be generated in time
+	 * @see KeyGenerator
+	 */
+	public static PrivateKey generate(int bits, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		return new KeyGenerator(bits).generate(timeout, unit);
+	}
+	
+	/*
+	 * Computes lambda, mu and the CRT values from the two primes
+	 */
+	private void init(int bits, BigInteger p, BigInteger q) {
 		// Compute values
 		BigInteger n = p.multiply(q);
-		p = p.subtract(BigInteger.ONE); // p is now p-1
-		q = q.subtract(BigInteger.ONE); // q is now q-1
-		this.lambda = p.multiply(q); // (p-1) * (q-1)
+		BigInteger p_minus_one = p.subtract(BigInteger.ONE);
+		BigInteger q_minus_one = q.subtract(BigInteger.ONE);
+		this.lambda = p_minus_one.multiply(q_minus_one); // (p-1) * (q-1)
 		
 		// Set values
 		this.pub = new PublicKey(bits, n);
 		this.mu = this.lambda.modInverse(this.pub.getN());
+		
+		// Precompute the values needed for CRT decryption
+		this.p = p;
+		this.q = q;
+		this.p_squared = p.multiply(p);
+		this.q_squared = q.multiply(q);
+		this.hp = this.computeH(p, this.p_squared);
+		this.hq = this.computeH(q, this.q_squared);
+		this.q_inverse = q.modInverse(p);
+		
+		// Precompute the values needed for CRT encryption. Since the order
+		// of the group mod p^2 is p(p-1), the exponent n can be reduced.
+		this.p_exponent = n.mod(this.p_squared.subtract(p));
+		this.q_exponent = n.mod(this.q_squared.subtract(q));
+		this.q_squared_inverse = this.q_squared.modInverse(this.p_squared);
+	}
+	
+	/*
+	 * Computes h = L_x(g^(x-1) mod x^2)^-1 mod x for one of the primes
+	 */
+	private BigInteger computeH(BigInteger x, BigInteger x_squared) {
+		// g^(x-1) = 1 + (x-1)*n mod x^2 since g = n+1
+		BigInteger tmp = this.pub.encode(x.subtract(BigInteger.ONE)).mod(x_squared);
+		tmp = tmp.subtract(BigInteger.ONE).divide(x);
+		
+		return tmp.modInverse(x);
 	}
 	
 	/**
@@ -66,4 +160,92 @@ public class PrivateKey implements Serializable {
 	BigInteger getMu() {
 		return mu;
 	}
+	
+	/*
+	 * The factors and CRT values are only exposed to this package so they
+	 * can be written by KeyWriter.
+	 */
+	BigInteger getP() {
+		return p;
+	}
+	
+	BigInteger getQ() {
+		return q;
+	}
+	
+	BigInteger getHp() {
+		return hp;
+	}
+	
+	BigInteger getHq() {
+		return hq;
+	}
+	
+	BigInteger getQInverse() {
+		return q_inverse;
+	}
+	
+	BigInteger getQSquaredInverse() {
+		return q_squared_inverse;
+	}
+	
+	/*
+	 * Returns true if the factors of n are available, meaning decryption
+	 * can be done with the Chinese Remainder Theorem.
+	 */
+	boolean hasFactors() {
+		return p != null;
+	}
+	
+	/*
+	 * Decrypts the given ciphertext value. Uses the Chinese Remainder Theorem
+	 * when the factors of n are known, and falls back to a single
+	 * exponentiation by lambda mod n^2 otherwise.
+	 */
+	BigInteger decrypt(BigInteger cipherval) {
+		ArithmeticBackend backend = pub.getArithmeticBackend();
+		
+		if (!this.hasFactors()) {
+			BigInteger plainval = backend.modPow(cipherval, lambda, pub.getNSquared());
+			plainval = plainval.subtract(BigInteger.ONE);
+			plainval = plainval.divide(pub.getN());
+			plainval = plainval.multiply(mu);
+		
+			return plainval.mod(pub.getN());
+		}
+		
+		// m_p = L_p(c^(p-1) mod p^2) * hp mod p
+		BigInteger mp = backend.modPow(cipherval.mod(p_squared), p.subtract(BigInteger.ONE), p_squared);
+		mp = mp.subtract(BigInteger.ONE).divide(p).multiply(hp).mod(p);
+		
+		// m_q = L_q(c^(q-1) mod q^2) * hq mod q
+		BigInteger mq = backend.modPow(cipherval.mod(q_squared), q.subtract(BigInteger.ONE), q_squared);
+		mq = mq.subtract(BigInteger.ONE).divide(q).multiply(hq).mod(q);
+		
+		// Recombine: m = m_q + q * ((m_p - m_q) * q^-1 mod p)
+		BigInteger tmp = mp.subtract(mq).multiply(q_inverse).mod(p);
+		
+		return mq.add(tmp.multiply(q));
+	}
+	
+	/*
+	 * Computes the blinding factor r^n mod n^2 used during encryption. When
+	 * the factors of n are known this is done mod p^2 and q^2 with reduced
+	 * exponents and recombined with the Chinese Remainder Theorem.
+	 */
+	BigInteger computeBlinding(BigInteger r) {
+		ArithmeticBackend backend = pub.getArithmeticBackend();
+		
+		if (!this.hasFactors() || this.p_exponent == null) {
+			return backend.modPow(r, pub.getN(), pub.getNSquared());
+		}
+		
+		BigInteger xp = backend.modPow(r.mod(p_squared), p_exponent, p_squared);
+		BigInteger xq = backend.modPow(r.mod(q_squared), q_exponent, q_squared);
+		
+		// Recombine: x = x_q + q^2 * ((x_p - x_q) * q^-2 mod p^2)
+		BigInteger tmp = xp.subtract(xq).multiply(q_squared_inverse).mod(p_squared);
+		
+		return xq.add(tmp.multiply(q_squared));
+	}
 }
@@ -2,6 +2,10 @@ package thep.paillier;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import thep.paillier.exceptions.BigIntegerClassNotValid;
 
 public class PublicKey implements Serializable {
 	/**
@@ -12,6 +16,10 @@ public class PublicKey implements Serializable {
 	private BigInteger n;
 	private BigInteger n_squared;
 	private BigInteger g; // = n+1
+	private transient RandomnessPool pool;
+	private transient volatile MontgomeryContext montgomery;
+	private transient ArithmeticBackend backend;
+	private transient volatile Map<Class<? extends BigInteger>, ArithmeticBackend> classBackends;
 	
 	/**
 	 * Constructs a public key with the given modulus. Precomputes a few values
@@ -25,6 +33,7 @@ public class PublicKey implements Serializable {
 		this.n = n;
 		this.n_squared = n.multiply(n);
 		this.g = n.add(BigInteger.ONE);
+		this.backend = BigIntegerBackend.INSTANCE;
 	}
 	
 	/**
@@ -60,6 +69,19 @@ public class PublicKey implements Serializable {
 		return g;
 	}
 	
+	/**
+	 * Returns g^m mod N Squared, the encoding of a plaintext value. Since
+	 * g = n+1, the binomial theorem gives g^m = 1 + m*n mod N Squared, so no
+	 * modular exponentiation is needed.
+	 * 
+	 * @param m the plaintext value, which may be negative
+	 * @return g^m mod N Squared
+	 */
+	public BigInteger encode(BigInteger m) {
+		// m mod n < n, so 1 + m*n is already less than N Squared
+		return m.mod(n).multiply(n).add(BigInteger.ONE);
+	}
+	
 	/**
 	 * Returns N Squared
 	 * @return N Squared
@@ -67,4 +89,106 @@ public class PublicKey implements Serializable {
 	public BigInteger getNSquared() {
 		return n_squared;
 	}
+	
+	/**
+	 * Returns the Montgomery arithmetic context for N Squared, creating it
+	 * the first time it is needed
+	 * 
+	 * @return the Montgomery context for N Squared
+	 */
+	public MontgomeryContext getMontgomeryContext() {
+		MontgomeryContext ctx = this.montgomery;
+		if (ctx == null) {
+			ctx = new MontgomeryContext(n_squared);
+			this.montgomery = ctx;
+		}
+		
+		return ctx;
+	}
+	
+	/**
+	 * Attaches a pool of precomputed blinding factors to this key. Encrypted
+	 * integers using this key take their blinding factors from the pool
+	 * when encrypting or rerandomizing. The pool is not serialized.
+	 * 
+	 * @param pool the pool to use, or null to stop using a pool
+	 */
+	public void setRandomnessPool(RandomnessPool pool) {
+		if (pool != null && !this.equals(pool.getPublicKey())) {
+			throw new IllegalArgumentException("The pool was created for a different public key");
+		}
+		
+		this.pool = pool;
+	}
+	
+	/**
+	 * Returns the pool of precomputed blinding factors attached to this key
+	 * @return the pool, or null if there is none
+	 */
+	public RandomnessPool getRandomnessPool() {
+		return pool;
+	}
+	
+	/**
+	 * Sets the arithmetic backend used for operations on values encrypted
+	 * with this key. The backend is not serialized, deserialized keys use
+	 * BigIntegerBackend.
+	 * 
+	 * @param backend the backend to use
+	 */
+	public void setArithmeticBackend(ArithmeticBackend backend) {
+		if (backend == null) {
+			throw new IllegalArgumentException("The backend must not be null");
+		}
+		
+		this.backend = backend;
+	}
+	
+	/**
+	 * Returns the arithmetic backend used for operations on values encrypted
+	 * with this key
+	 * 
+	 * @return the arithmetic backend
+	 */
+	public ArithmeticBackend getArithmeticBackend() {
+		ArithmeticBackend backend = this.backend;
+		if (backend == null) {
+			// Deserialized keys do not have a backend yet
+			backend = BigIntegerBackend.INSTANCE;
+			this.backend = backend;
+		}
+		
+		return backend;
+	}
+	
+	/**
+	 * Returns the arithmetic backend to use for the given big integer class.
+	 * This is the backend of this key for BigInteger itself, and an adapter
+	 * for any other class. The adapter for a class is created the first
+	 * time it is needed and kept with the key, so its constructors are only
+	 * looked up once.
+	 * 
+	 * @param c the class to use for big integers
+	 * @return the arithmetic backend
+	 * @throws BigIntegerClassNotValid if the class cannot be used
+	 */
+	public ArithmeticBackend getArithmeticBackend(Class<? extends BigInteger> c) throws BigIntegerClassNotValid {
+		if (c == BigInteger.class) {
+			return this.getArithmeticBackend();
+		}
+		
+		Map<Class<? extends BigInteger>, ArithmeticBackend> backends = this.classBackends;
+		if (backends == null) {
+			backends = new ConcurrentHashMap<Class<? extends BigInteger>, ArithmeticBackend>();
+			this.classBackends = backends;
+		}
+		
+		ArithmeticBackend backend = backends.get(c);
+		if (backend == null) {
+			backend = new BigIntegerClassBackend(c);
+			backends.put(c, backend);
+		}
+		
+		return backend;
+	}
 }
@@ -0,0 +1,377 @@
+package thep.paillier;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of precomputed blinding factors r^n mod n^2 for one public key.
+ * Background producer threads refill the pool to the high watermark
+ * whenever it drops to the low watermark, so encryption and
+ * rerandomization only need a couple of multiplications.
+ *
+ * A pool is used by encrypted integers once it is attached to the public
+ * key with PublicKey.setRandomnessPool(). Each value is handed out only
+ * once. The values are as sensitive as the plaintexts they will protect.
+ */
+public class RandomnessPool implements Closeable {
+	/**
+	 * What to do when a value is needed but the pool is empty
+	 */
+	public enum EmptyPolicy {
+		/** wait for a producer to add a value */
+		BLOCK,
+		/** compute the value on the calling thread */
+		COMPUTE
+	}
+	
+	private static final int FILE_MAGIC = 0x54484552; // "THER"
+	private static final short FILE_VERSION = 1;
+	
+	private PublicKey pub;
+	private PrivateKey priv;
+	private int lowWatermark;
+	private int highWatermark;
+	private EmptyPolicy policy;
+	private ArrayDeque<BigInteger[]> values;
+	private ReentrantLock lock;
+	private Condition notEmpty;
+	private Condition needed;
+	private boolean filling;
+	private boolean closed;
+	private Random rng;
+	
+	/**
+	 * Constructs a pool holding up to 1024 values, refilled by one producer
+	 * when it drops to 256 values. Values are computed on the calling
+	 * thread when the pool is empty.
+	 * 
+	 * @param pub the public key the values are computed for
+	 */
+	public RandomnessPool(PublicKey pub) {
+		this(pub, 256, 1024, 1, EmptyPolicy.COMPUTE);
+	}
+	
+	/**
+	 * Constructs a pool and starts its producer threads
+	 * 
+	 * @param pub the public key the values are computed for
+	 * @param lowWatermark the producers start refilling when the pool drops
+	 * to this many values
+	 * @param highWatermark the producers stop when the pool holds this many
+	 * values, this is also the capacity of the pool
+	 * @param producers the number of producer threads
+	 * @param policy what to do when the pool is empty
+	 */
+	public RandomnessPool(PublicKey pub, int lowWatermark, int highWatermark,
+			int producers, EmptyPolicy policy) {
+		this(pub, null, lowWatermark, highWatermark, producers, policy);
+	}
+	
+	/**
+	 * Constructs a pool whose producers use the factors in the private key
+	 * to compute the values faster. This is only useful when the party
+	 * encrypting also holds the private key.
+	 * 
+	 * @param priv the private key whose public key the values are computed for
+	 * @param lowWatermark the producers start refilling when the pool drops
+	 * to this many values
+	 * @param highWatermark the producers stop when the pool holds this many
+	 * values, this is also the capacity of the pool
+	 * @param producers the number of producer threads
+	 * @param policy what to do when the pool is empty
+	 */
+	public RandomnessPool(PrivateKey priv, int lowWatermark, int highWatermark,
+			int producers, EmptyPolicy policy) {
+		this(priv.getPublicKey(), priv, lowWatermark, highWatermark, producers, policy);
+	}
+	
+	private RandomnessPool(PublicKey pub, PrivateKey priv, int lowWatermark,
+			int highWatermark, int producers, EmptyPolicy policy) {
+		if (lowWatermark < 0 || highWatermark < 1 || lowWatermark >= highWatermark) {
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high");
+		}
+		
+		this.pub = pub;
+		this.priv = priv;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.policy = policy;
+		this.values = new ArrayDeque<BigInteger[]>(highWatermark);
+		this.lock = new ReentrantLock();
+		this.notEmpty = this.lock.newCondition();
+		this.needed = this.lock.newCondition();
+		this.filling = true;
+		this.closed = false;
+		this.rng = new SecureRandom();
+		
+		for (int i=0; i<producers; i++) {
+			Thread t = new Thread(new Producer(), "thep-randomness-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+	
+	/**
+	 * Returns the public key the values are computed for
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Returns the number of values currently in the pool
+	 * @return the number of values in the pool
+	 */
+	public int size() {
+		this.lock.lock();
+		try {
+			return this.values.size();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/**
+	 * Stops the producer threads. Values left in the pool can still be
+	 * taken, after which they are computed on the calling thread.
+	 */
+	public void close() {
+		this.lock.lock();
+		try {
+			this.closed = true;
+			this.needed.signalAll();
+			this.notEmpty.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/*
+	 * Removes a value from the pool. Returns the pair {r, r^n mod n^2}.
+	 */
+	BigInteger[] take() {
+		this.lock.lock();
+		try {
+			while (this.values.isEmpty()) {
+				this.startFilling();
+				
+				if (this.policy == EmptyPolicy.COMPUTE || this.closed) {
+					break;
+				}
+				
+				try {
+					this.notEmpty.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			
+			BigInteger[] value = this.values.poll();
+			if (this.values.size() <= this.lowWatermark) {
+				this.startFilling();
+			}
+			
+			if (value != null) {
+				return value;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+		
+		return this.compute(this.rng);
+	}
+	
+	/**
+	 * Writes the values in the pool to the stream so they can be loaded
+	 * when the process starts again. The values written are removed from
+	 * the pool so they are never used twice, and the saved copy should only
+	 * be loaded once.
+	 * 
+	 * @param out the stream to write the values to
+	 * @throws IOException
+	 */
+	public void save(OutputStream out) throws IOException {
+		BigInteger[][] saved;
+		
+		this.lock.lock();
+		try {
+			saved = this.values.toArray(new BigInteger[0][]);
+			this.values.clear();
+			this.startFilling();
+		} finally {
+			this.lock.unlock();
+		}
+		
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(FILE_MAGIC);
+		data.writeShort(FILE_VERSION);
+		RandomnessPool.writeMagnitude(data, this.pub.getN());
+		data.writeInt(saved.length);
+		for (BigInteger[] value : saved) {
+			RandomnessPool.writeMagnitude(data, value[0]);
+			RandomnessPool.writeMagnitude(data, value[1]);
+		}
+		data.flush();
+	}
+	
+	/**
+	 * Adds values written by save() to the pool, up to the high watermark.
+	 * Each pair {r, r^n mod n^2} is only checked to be in range, with r in
+	 * [1, n) and r^n mod n^2 in [1, n^2); the exponentiation is not
+	 * repeated, so the stream must come from a trusted save(). Nothing is
+	 * added if any value is out of range.
+	 * 
+	 * @param in the stream to read the values from
+	 * @return the number of values added
+	 * @throws IOException if the stream is not a randomness pool file, a
+	 * value is out of range, or the values were computed for a different
+	 * public key
+	 */
+	public int load(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		
+		if (data.readInt() != FILE_MAGIC || data.readShort() != FILE_VERSION) {
+			throw new IOException("Not a randomness pool file");
+		}
+		if (!RandomnessPool.readMagnitude(data).equals(this.pub.getN())) {
+			throw new IOException("The randomness pool was saved for a different public key");
+		}
+		
+		BigInteger N = this.pub.getN();
+		BigInteger N_squared = this.pub.getNSquared();
+		int count = data.readInt();
+		List<BigInteger[]> values = new ArrayList<BigInteger[]>();
+		for (int i=0; i<count; i++) {
+			BigInteger[] value = {RandomnessPool.readMagnitude(data),
+					RandomnessPool.readMagnitude(data)};
+			
+			if (value[0].signum() == 0 || value[0].compareTo(N) >= 0 || 
+					value[1].signum() == 0 || value[1].compareTo(N_squared) >= 0) {
+				throw new IOException("Randomness pool value out of range");
+			}
+			values.add(value);
+		}
+		
+		int added = 0;
+		for (BigInteger[] value : values) {
+			if (this.offer(value)) {
+				added++;
+			}
+		}
+		
+		return added;
+	}
+	
+	/*
+	 * Adds a value unless the pool is full. Returns false if it was full.
+	 */
+	private boolean offer(BigInteger[] value) {
+		this.lock.lock();
+		try {
+			if (this.values.size() >= this.highWatermark) {
+				this.filling = false;
+				return false;
+			}
+			
+			this.values.add(value);
+			this.notEmpty.signal();
+			if (this.values.size() >= this.highWatermark) {
+				this.filling = false;
+			}
+			
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/*
+	 * Wakes the producers, must hold the lock
+	 */
+	private void startFilling() {
+		if (!this.filling) {
+			this.filling = true;
+			this.needed.signalAll();
+		}
+	}
+	
+	/*
+	 * Computes a fresh pair {r, r^n mod n^2}
+	 */
+	private BigInteger[] compute(Random rng) {
+		BigInteger r;
+		
+		// Generate random blinding factor less than n
+		do {
+			r = new BigInteger(this.pub.getBits(), rng);
+		} while (r.compareTo(this.pub.getN()) >= 0);
+		
+		BigInteger x;
+		if (this.priv != null) {
+			x = this.priv.computeBlinding(r);
+		} else {
+			x = r.modPow(this.pub.getN(), this.pub.getNSquared());
+		}
+		
+		return new BigInteger[] {r, x};
+	}
+	
+	/*
+	 * Refills the pool whenever it drops to the low watermark
+	 */
+	private class Producer implements Runnable {
+		public void run() {
+			Random rng = new SecureRandom();
+			
+			while (true) {
+				lock.lock();
+				try {
+					while (!filling && !closed) {
+						needed.awaitUninterruptibly();
+					}
+					
+					if (closed) {
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+				
+				// Compute without holding the lock
+				offer(compute(rng));
+			}
+		}
+	}
+	
+	private static void writeMagnitude(DataOutputStream out, BigInteger x) throws IOException {
+		byte[] magnitude = KeyWriter.toMagnitude(x);
+		out.writeInt(magnitude.length);
+		out.write(magnitude);
+	}
+	
+	private static BigInteger readMagnitude(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > (1 << 20)) {
+			throw new IOException("Invalid value length " + length);
+		}
+		
+		byte[] magnitude = new byte[length];
+		in.readFully(magnitude);
+		
+		return new BigInteger(1, magnitude);
+	}
+}
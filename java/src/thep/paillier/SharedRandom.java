@@ -0,0 +1,31 @@
+package thep.paillier;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Thread-local secure random number generators. Creating and seeding a
+ * SecureRandom is expensive and sharing one between threads causes
+ * contention, so code encrypting many values should use the generator of
+ * the current thread instead.
+ */
+public final class SharedRandom {
+	private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+		protected SecureRandom initialValue() {
+			return new SecureRandom();
+		}
+	};
+	
+	private SharedRandom() {
+	}
+	
+	/**
+	 * Returns the secure random number generator of the current thread. It
+	 * must not be passed to other threads.
+	 * 
+	 * @return the generator of the current thread
+	 */
+	public static Random current() {
+		return RANDOM.get();
+	}
+}
@@ -0,0 +1,12 @@
+package thep.paillier.exceptions;
+
+public class SlotOverflowException extends Exception {
+	/**
+	 * default serial version UID
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	public SlotOverflowException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,230 @@
+package thep.paillier.protocols;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import thep.paillier.SharedRandom;
+import thep.paillier.exceptions.SizesNotEqualException;
+
+/**
+ * A comparison protocol in the style of Damgard, Geisler and Kroigaard,
+ * with the same shape as GTSCOT: the receiver encrypts the bits of x with
+ * its DGK key, the sender combines them with the bits of y, and the
+ * receiver learns whether x < y.
+ *
+ * For each bit i, counting from the most significant, the sender computes
+ * an encryption of
+ *
+ *   c_i = x_i - y_i + 1 + 3 * sum_(j<i) (x_j xor y_j)
+ *
+ * which is zero exactly when the bits above i are equal and x_i = 0,
+ * y_i = 1, that is when x < y is decided at bit i. Each c_i is multiplied
+ * by a random nonzero value mod u, rerandomized and shuffled, and the
+ * receiver only tests the ciphertexts for zero. A DGK ciphertext is one
+ * element mod n instead of mod N Squared, and the zero test is one short
+ * exponentiation mod p instead of a Paillier decryption.
+ *
+ * Unlike GTSCOT the receiver learns the result of the comparison rather
+ * than one of two messages chosen by the sender.
+ *
+ * @see GTSCOT
+ * @see DGKPrivateKey
+ */
+public class DGKComparison {
+	private static final BigInteger THREE = BigInteger.valueOf(3);
+	
+	/**
+	 * Performs the senders function of the comparison
+	 * 
+	 * @param pub the public key used for the encrypted bits
+	 * @param x the encrypted input vector from the receiver
+	 * @param y the senders unencrypted input vector
+	 * @return an encrypted vector which contains a zero if and only if x<y
+	 * @throws SizesNotEqualException if an input is longer than the key
+	 * allows
+	 */
+	public static BigInteger[] sender(DGKPublicKey pub, BigInteger[] x, BigInteger[] y)
+			throws SizesNotEqualException {
+		BigInteger[][] tmp = {y};
+		
+		return DGKComparison.sender(pub, x, tmp, ForkJoinPool.commonPool())[0];
+	}
+	
+	/**
+	 * Performs the senders function of the comparison for one encrypted
+	 * input and many plaintext inputs, in the common ForkJoin pool
+	 * 
+	 * @param pub the public key used for the encrypted bits
+	 * @param x the encrypted input vector from the receiver
+	 * @param y the senders unencrypted input vectors
+	 * @return one encrypted vector per input vector in y, in the same order
+	 * @throws SizesNotEqualException if an input is longer than the key
+	 * allows
+	 * @see #sender(DGKPublicKey, BigInteger[], BigInteger[][], ForkJoinPool)
+	 */
+	public static BigInteger[][] sender(DGKPublicKey pub, BigInteger[] x, BigInteger[][] y)
+			throws SizesNotEqualException {
+		return DGKComparison.sender(pub, x, y, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Performs the senders function of the comparison for one encrypted
+	 * input and many plaintext inputs. All vectors are padded to the
+	 * longest input, and the inverses of the encrypted bits are computed
+	 * once. The output vectors are computed in parallel.
+	 * 
+	 * @param pub the public key used for the encrypted bits
+	 * @param x the encrypted input vector from the receiver
+	 * @param y the senders unencrypted input vectors
+	 * @param pool the pool to run the senders in
+	 * @return one encrypted vector per input vector in y, in the same order
+	 * @throws SizesNotEqualException if an input is longer than the key
+	 * allows
+	 */
+	public static BigInteger[][] sender(final DGKPublicKey pub, BigInteger[] x,
+			final BigInteger[][] y, ForkJoinPool pool) throws SizesNotEqualException {
+		int len = x.length;
+		for (BigInteger[] yj : y) {
+			len = Math.max(len, yj.length);
+		}
+		if (len > pub.getL()) {
+			throw new SizesNotEqualException("The inputs must not be longer " +
+					"than " + pub.getL() + " bits");
+		}
+		
+		// Pad x with encryptions of zero, and compute the encryptions of
+		// 1 - x_i used for x_i xor y_i when y_i = 1
+		final BigInteger n = pub.getN();
+		final BigInteger g = pub.getG();
+		final BigInteger[] xs = new BigInteger[len];
+		final BigInteger[] one_minus_x = new BigInteger[len];
+		for (int i=0; i<len; i++) {
+			int pad_len = len - x.length;
+			xs[i] = i < pad_len ? BigInteger.ONE : x[i-pad_len];
+			one_minus_x[i] = g.multiply(xs[i].modInverse(n)).mod(n);
+		}
+		
+		final BigInteger[][] results = new BigInteger[y.length][];
+		pool.submit(() -> IntStream.range(0, y.length).parallel().forEach(j -> {
+			results[j] = DGKComparison.compare(pub, xs, one_minus_x, y[j], SharedRandom.current());
+		})).join();
+		
+		return results;
+	}
+	
+	/*
+	 * Computes the shuffled, blinded terms c_i for one plaintext input
+	 */
+	private static BigInteger[] compare(DGKPublicKey pub, BigInteger[] xs, BigInteger[] one_minus_x,
+			BigInteger[] y, Random rng) {
+		BigInteger n = pub.getN();
+		BigInteger g = pub.getG();
+		BigInteger u_minus_one = pub.getU().subtract(BigInteger.ONE);
+		int pad_len = xs.length - y.length;
+		
+		BigInteger[] c = new BigInteger[xs.length];
+		BigInteger w = BigInteger.ONE; // encrypts sum_(j<i) x_j xor y_j
+		
+		for (int i=0; i<c.length; i++) {
+			boolean yi = i >= pad_len && y[i-pad_len].equals(BigInteger.ONE);
+			
+			// c_i = x_i - y_i + 1 + 3 * w
+			BigInteger tmp = w.modPow(THREE, n).multiply(xs[i]);
+			if (!yi) {
+				tmp = tmp.multiply(g);
+			}
+			tmp = tmp.mod(n);
+			
+			// Multiply by a random nonzero value mod u and rerandomize
+			BigInteger r = new BigInteger(u_minus_one.bitLength(), rng).mod(u_minus_one).add(BigInteger.ONE);
+			c[i] = tmp.modPow(r, n).multiply(pub.blindingFactor(rng)).mod(n);
+			
+			w = w.multiply(yi ? one_minus_x[i] : xs[i]).mod(n);
+		}
+		
+		// permute c
+		Collections.shuffle(Arrays.asList(c), rng);
+		
+		return c;
+	}
+	
+	/**
+	 * Performs the receiver function of the comparison, testing the
+	 * elements of c for zero in the common ForkJoin pool
+	 * 
+	 * @param priv the private key for the zero test
+	 * @param c the encrypted vector output by the sender
+	 * @return true if x<y, false if x>=y
+	 * @see #receiver(DGKPrivateKey, BigInteger[], ForkJoinPool)
+	 */
+	public static boolean receiver(DGKPrivateKey priv, BigInteger[] c) {
+		return DGKComparison.receiver(priv, c, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Performs the receiver function of the comparison, testing the
+	 * elements of c for zero in parallel and stopping at the first zero
+	 * 
+	 * @param priv the private key for the zero test
+	 * @param c the encrypted vector output by the sender
+	 * @param pool the pool to run the zero tests in
+	 * @return true if x<y, false if x>=y
+	 */
+	public static boolean receiver(final DGKPrivateKey priv, final BigInteger[] c, ForkJoinPool pool) {
+		return pool.submit(() -> Arrays.stream(c).parallel().anyMatch(priv::isZero)).join();
+	}
+	
+	/**
+	 * Performs the receiver function of the comparison for the vectors
+	 * output by the batch sender, in the common ForkJoin pool
+	 * 
+	 * @param priv the private key for the zero test
+	 * @param c the encrypted vectors output by the sender
+	 * @return for each vector, true if x<y and false if x>=y
+	 * @see #receiver(DGKPrivateKey, BigInteger[][], ForkJoinPool)
+	 */
+	public static boolean[] receiver(DGKPrivateKey priv, BigInteger[][] c) {
+		return DGKComparison.receiver(priv, c, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Performs the receiver function of the comparison for the vectors
+	 * output by the batch sender. The vectors, and the elements of each
+	 * vector, are tested in parallel.
+	 * 
+	 * @param priv the private key for the zero test
+	 * @param c the encrypted vectors output by the sender
+	 * @param pool the pool to run the zero tests in
+	 * @return for each vector, true if x<y and false if x>=y
+	 */
+	public static boolean[] receiver(final DGKPrivateKey priv, final BigInteger[][] c, ForkJoinPool pool) {
+		final boolean[] results = new boolean[c.length];
+		pool.submit(() -> IntStream.range(0, c.length).parallel().forEach(j -> {
+			results[j] = Arrays.stream(c[j]).parallel().anyMatch(priv::isZero);
+		})).join();
+		
+		return results;
+	}
+	
+	// Helper functions
+	/**
+	 * Creates an encrypted vector
+	 * @param pub the public key used for encryption
+	 * @param x the number to use to create the vector
+	 * @return the bits of x encrypted separately (from MSBit to LSBit)
+	 */
+	public static BigInteger[] createEncryptedVector(DGKPublicKey pub, BigInteger x) {
+		BigInteger[] tmp = GTSCOT.createVector(x);
+		Random rng = SharedRandom.current();
+		
+		for (int i=0; i<tmp.length; i++) {
+			tmp[i] = pub.encrypt(tmp[i], rng);
+		}
+		
+		return tmp;
+	}
+}
@@ -0,0 +1,166 @@
+package thep.paillier.protocols;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * A private key for the DGK cryptosystem. Besides decryption, which
+ * searches the small plaintext space, it offers a zero test: since h has
+ * order vp*vq and g has order u*vp*vq, c^vp mod p is 1 exactly when the
+ * plaintext of c is zero. This costs one exponentiation by a t-bit
+ * exponent mod p.
+ *
+ * @see DGKPublicKey
+ */
+public class DGKPrivateKey implements Serializable {
+	/**
+	 * The serial version ID
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The default bit length of vp and vq
+	 */
+	public static final int DEFAULT_T = 160;
+	private DGKPublicKey pub;
+	private BigInteger p;
+	private BigInteger q;
+	private BigInteger vp;
+	private BigInteger vq;
+	
+	/**
+	 * Constructs a private key with the specified number of bits, for
+	 * comparing values of up to l bits
+	 * 
+	 * @param bits the number of bits for the modulus n
+	 * @param l the maximum bit length of the values which can be compared
+	 */
+	public DGKPrivateKey(int bits, int l) {
+		this(bits, l, DEFAULT_T);
+	}
+	
+	/**
+	 * Constructs a private key with the specified number of bits, for
+	 * comparing values of up to l bits
+	 * 
+	 * @param bits the number of bits for the modulus n
+	 * @param l the maximum bit length of the values which can be compared
+	 * @param t the bit length of the secret primes vp and vq
+	 */
+	public DGKPrivateKey(int bits, int l, int t) {
+		Random rng = new SecureRandom();
+		
+		// A comparison term is at most 3l-1, so a prime above 3l keeps
+		// every nonzero term nonzero mod u
+		BigInteger u = BigInteger.valueOf(3L * l).nextProbablePrime();
+		
+		this.vp = BigInteger.probablePrime(t, rng);
+		do {
+			this.vq = BigInteger.probablePrime(t, rng);
+		} while (this.vq.equals(this.vp));
+		
+		this.p = DGKPrivateKey.findPrime(bits/2, u.multiply(this.vp), rng);
+		do {
+			this.q = DGKPrivateKey.findPrime(bits - bits/2, u.multiply(this.vq), rng);
+		} while (this.q.equals(this.p));
+		
+		BigInteger gp = DGKPrivateKey.findElement(this.p, u, this.vp, rng);
+		BigInteger gq = DGKPrivateKey.findElement(this.q, u, this.vq, rng);
+		BigInteger hp = DGKPrivateKey.findElement(this.p, BigInteger.ONE, this.vp, rng);
+		BigInteger hq = DGKPrivateKey.findElement(this.q, BigInteger.ONE, this.vq, rng);
+		
+		BigInteger g = this.combine(gp, gq);
+		BigInteger h = this.combine(hp, hq);
+		this.pub = new DGKPublicKey(this.p.multiply(this.q), g, h, u, t, l);
+	}
+	
+	/*
+	 * Finds a prime p of the given length with p = 1 mod factor
+	 */
+	private static BigInteger findPrime(int bits, BigInteger factor, Random rng) {
+		int r_bits = bits - factor.bitLength();
+		BigInteger p;
+		
+		do {
+			BigInteger r = new BigInteger(r_bits, rng).setBit(r_bits - 1);
+			p = factor.multiply(r).add(BigInteger.ONE);
+		} while (!p.isProbablePrime(64));
+		
+		return p;
+	}
+	
+	/*
+	 * Finds an element of order a*b mod p, for primes a and b dividing
+	 * p-1, where a may be one
+	 */
+	private static BigInteger findElement(BigInteger p, BigInteger a, BigInteger b, Random rng) {
+		BigInteger order = a.multiply(b);
+		BigInteger exponent = p.subtract(BigInteger.ONE).divide(order);
+		
+		while (true) {
+			BigInteger x = new BigInteger(p.bitLength(), rng).mod(p);
+			if (x.signum() == 0) {
+				continue;
+			}
+			
+			x = x.modPow(exponent, p);
+			
+			// The order divides a*b, so it is a*b unless x^a or x^b is one
+			if (!x.modPow(a, p).equals(BigInteger.ONE) &&
+					(a.equals(BigInteger.ONE) || !x.modPow(b, p).equals(BigInteger.ONE))) {
+				return x;
+			}
+		}
+	}
+	
+	/*
+	 * Combines values mod p and mod q with the Chinese Remainder Theorem
+	 */
+	private BigInteger combine(BigInteger xp, BigInteger xq) {
+		BigInteger tmp = xp.subtract(xq).multiply(this.q.modInverse(this.p)).mod(this.p);
+		
+		return xq.add(tmp.multiply(this.q));
+	}
+	
+	/**
+	 * Returns true if the ciphertext is an encryption of zero
+	 * 
+	 * @param c the ciphertext
+	 * @return true if the plaintext is zero
+	 */
+	public boolean isZero(BigInteger c) {
+		return c.mod(this.p).modPow(this.vp, this.p).equals(BigInteger.ONE);
+	}
+	
+	/**
+	 * Decrypts a ciphertext by searching the plaintext space. This costs up
+	 * to u multiplications, which is cheap since u is small.
+	 * 
+	 * @param c the ciphertext
+	 * @return the plaintext value, in [0, u)
+	 */
+	public BigInteger decrypt(BigInteger c) {
+		BigInteger x = c.mod(this.p).modPow(this.vp, this.p);
+		BigInteger base = this.pub.getG().mod(this.p).modPow(this.vp, this.p);
+		BigInteger tmp = BigInteger.ONE;
+		
+		for (BigInteger m = BigInteger.ZERO; m.compareTo(this.pub.getU()) < 0; m = m.add(BigInteger.ONE)) {
+			if (tmp.equals(x)) {
+				return m;
+			}
+			tmp = tmp.multiply(base).mod(this.p);
+		}
+		
+		throw new IllegalArgumentException("The value is not a valid ciphertext");
+	}
+	
+	/**
+	 * Return a public key associated with this private key
+	 * 
+	 * @return the public key associated with this private key
+	 */
+	public DGKPublicKey getPublicKey() {
+		return pub;
+	}
+}
@@ -0,0 +1,143 @@
+package thep.paillier.protocols;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * A public key for the cryptosystem of Damgard, Geisler and Kroigaard
+ * (DGK). The plaintext space is Z_u for a small prime u, so encryption
+ * costs one short exponentiation mod n rather than a full exponentiation
+ * mod N Squared, and the holder of the private key can test a ciphertext
+ * for zero without decrypting it. This makes it suitable for comparing
+ * values bit by bit.
+ *
+ * A ciphertext is g^m * h^r mod n, where g has order u*vp*vq, h has order
+ * vp*vq and r is a random number of 2.5t bits.
+ *
+ * @see DGKPrivateKey
+ * @see DGKComparison
+ */
+public class DGKPublicKey implements Serializable {
+	/**
+	 * The serial version ID
+	 */
+	private static final long serialVersionUID = 1L;
+	private BigInteger n;
+	private BigInteger g;
+	private BigInteger h;
+	private BigInteger u;
+	private int t;
+	private int l;
+	
+	/**
+	 * Constructs a public key from its values
+	 * 
+	 * @param n the modulus
+	 * @param g the generator of order u*vp*vq
+	 * @param h the generator of order vp*vq
+	 * @param u the prime plaintext modulus
+	 * @param t the bit length of vp and vq
+	 * @param l the maximum bit length of the values which can be compared
+	 */
+	public DGKPublicKey(BigInteger n, BigInteger g, BigInteger h, BigInteger u, int t, int l) {
+		this.n = n;
+		this.g = g;
+		this.h = h;
+		this.u = u;
+		this.t = t;
+		this.l = l;
+	}
+	
+	/**
+	 * Encrypts a plaintext value
+	 * 
+	 * @param m the plaintext value, which is reduced mod u
+	 * @param rng the random number generator to use
+	 * @return the ciphertext
+	 */
+	public BigInteger encrypt(BigInteger m, Random rng) {
+		return this.encode(m).multiply(this.blindingFactor(rng)).mod(this.n);
+	}
+	
+	/**
+	 * Returns g^m mod n, an encryption of m without randomness. It must be
+	 * rerandomized before it is sent to the holder of the private key.
+	 * 
+	 * @param m the plaintext value, which is reduced mod u
+	 * @return g^m mod n
+	 */
+	public BigInteger encode(BigInteger m) {
+		return this.g.modPow(m.mod(this.u), this.n);
+	}
+	
+	/**
+	 * Returns h^r mod n for a random r of 2.5t bits, which is an encryption
+	 * of zero
+	 * 
+	 * @param rng the random number generator to use
+	 * @return the blinding factor
+	 */
+	public BigInteger blindingFactor(Random rng) {
+		BigInteger r = new BigInteger(this.t * 5 / 2, rng);
+		
+		return this.h.modPow(r, this.n);
+	}
+	
+	/**
+	 * Returns the modulus
+	 * @return the modulus
+	 */
+	public BigInteger getN() {
+		return n;
+	}
+	
+	/**
+	 * Returns the generator of order u*vp*vq
+	 * @return g
+	 */
+	public BigInteger getG() {
+		return g;
+	}
+	
+	/**
+	 * Returns the generator of order vp*vq
+	 * @return h
+	 */
+	public BigInteger getH() {
+		return h;
+	}
+	
+	/**
+	 * Returns the prime plaintext modulus
+	 * @return u
+	 */
+	public BigInteger getU() {
+		return u;
+	}
+	
+	/**
+	 * Returns the bit length of the secret primes vp and vq
+	 * @return t
+	 */
+	public int getT() {
+		return t;
+	}
+	
+	/**
+	 * Returns the maximum bit length of the values which can be compared
+	 * @return l
+	 */
+	public int getL() {
+		return l;
+	}
+	
+	/**
+	 * Determines if two public keys are equal based on the value of n
+	 * @param other the other public key to look at
+	 * @return true if they are equal, false otherwise
+	 */
+	public boolean equals(DGKPublicKey other) {
+		return this.n.equals(other.getN());
+	}
+}
@@ -6,10 +6,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
+import thep.paillier.ArithmeticBackend;
+import thep.paillier.BatchEncryptor;
+import thep.paillier.Ciphertext;
+import thep.paillier.CiphertextBatch;
 import thep.paillier.EncryptedInteger;
 import thep.paillier.PrivateKey;
 import thep.paillier.PublicKey;
+import thep.paillier.SharedRandom;
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 import thep.paillier.exceptions.PublicKeysNotEqualException;
 import thep.paillier.exceptions.SizesNotEqualException;
@@ -108,15 +117,131 @@ public class GTSCOT {
 		
 		// permute mu
 		List<EncryptedInteger> tmp = Arrays.asList(mu);
-		Collections.shuffle(tmp);
-		mu = (EncryptedInteger[]) tmp.toArray();
+		Collections.shuffle(tmp, rng);
+		mu = tmp.toArray(new EncryptedInteger[mu.length]);
 		
 		// return mu
 		return mu;
 	}
 	
 	/**
-	 * Performs the receiver function of the GT-SCOT protocol
+	 * Performs the senders function of the GT-SCOT protocol for one
+	 * encrypted input and many plaintext inputs, in the common ForkJoin
+	 * pool
+	 * 
+	 * @param pub the public key used for the encrypted integers
+	 * @param x the encrypted input vector from the receiver
+	 * @param y the senders unencrypted input vectors
+	 * @param s0 message to send if x<y, should be member of D_s
+	 * @param s1 message to send if x>y, should be member of D_s
+	 * @return one encrypted vector per input vector in y, in the same order
+	 * @throws PublicKeysNotEqualException
+	 * @see #sender(PublicKey, EncryptedInteger[], BigInteger[][], BigInteger, BigInteger, ForkJoinPool)
+	 */
+	public static EncryptedInteger[][] sender(PublicKey pub, EncryptedInteger[] x, 
+			BigInteger[][] y, BigInteger s0, BigInteger s1) throws PublicKeysNotEqualException {
+		return GTSCOT.sender(pub, x, y, s0, s1, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Performs the senders function of the GT-SCOT protocol for one
+	 * encrypted input and many plaintext inputs. The encrypted input is
+	 * checked and padded once, to the length of the longest input, and
+	 * everything that depends only on it is computed once: its powers by
+	 * s1-s0 and the encryptions of 1-x_i, which need an inverse. Each
+	 * output vector then costs one exponentiation per bit, since the
+	 * random multiplier of each term is combined with s1-s0 into a single
+	 * exponent. The vectors are computed in parallel and each is shuffled
+	 * with a secure random number generator.
+	 * 
+	 * Each output vector has the same plaintexts as the output of the
+	 * single sender, apart from the extra padding, so it can be passed to
+	 * receiver().
+	 * 
+	 * @param pub the public key used for the encrypted integers
+	 * @param x the encrypted input vector from the receiver
+	 * @param y the senders unencrypted input vectors
+	 * @param s0 message to send if x<y, should be member of D_s
+	 * @param s1 message to send if x>y, should be member of D_s
+	 * @param pool the pool to run the senders in
+	 * @return one encrypted vector per input vector in y, in the same order
+	 * @throws PublicKeysNotEqualException
+	 */
+	public static EncryptedInteger[][] sender(final PublicKey pub, EncryptedInteger[] x, 
+			final BigInteger[][] y, BigInteger s0, BigInteger s1, ForkJoinPool pool) 
+	  throws PublicKeysNotEqualException {
+		// Check public keys to make sure everything is encrypted
+		// with the same key.
+		for (EncryptedInteger e : x)
+			if (!e.getPublicKey().equals(pub))
+				throw new PublicKeysNotEqualException("All values in encrypted " +
+						"vector must be encrypted with same public key");
+		
+		// Pad everything to the longest input, x with encryptions of zero
+		int len = x.length;
+		for (BigInteger[] yj : y) {
+			len = Math.max(len, yj.length);
+		}
+		final BigInteger[] xs = new BigInteger[len];
+		for (int i=0; i<len; i++) {
+			int pad_len = len - x.length;
+			xs[i] = i < pad_len ? BigInteger.ONE : x[i-pad_len].getCipherVal();
+		}
+		
+		final ArithmeticBackend backend = pub.getArithmeticBackend();
+		final BigInteger N = pub.getN();
+		final BigInteger N_squared = pub.getNSquared();
+		final BigInteger part1 = s1.subtract(s0).mod(N);
+		final BigInteger part2 = s1.add(s0);
+		final BigInteger m_one = pub.encode(BigInteger.ONE.negate());
+		final BigInteger one = pub.encode(BigInteger.ONE);
+		
+		// d_i^(s1-s0) = x_i^(s1-s0) * g^(-y_i*(s1-s0)), and f_i = 1 - x_i when y_i = 1
+		final BigInteger[] x_part1 = new BigInteger[len];
+		final BigInteger[] one_minus_x = new BigInteger[len];
+		pool.submit(() -> IntStream.range(0, xs.length).parallel().forEach(i -> {
+			x_part1[i] = backend.modPow(xs[i], part1, N_squared);
+			one_minus_x[i] = backend.modMultiply(one, backend.modInverse(xs[i], N_squared), N_squared);
+		})).join();
+		
+		final EncryptedInteger[][] results = new EncryptedInteger[y.length][];
+		pool.submit(() -> IntStream.range(0, y.length).parallel().forEach(j -> {
+			Random rng = SharedRandom.current();
+			int pad_len = xs.length - y[j].length;
+			BigInteger[] mu = new BigInteger[xs.length];
+			
+			// gamma_0 is a fresh encryption of zero
+			BigInteger r = BigInteger.ZERO;
+			do {
+				r = new BigInteger(pub.getBits(), rng);
+			} while (r.signum() == 0 || r.compareTo(N) >= 0);
+			BigInteger gamma = backend.modPow(r, N, N_squared);
+			
+			for (int i=0; i<mu.length; i++) {
+				BigInteger yi = i < pad_len ? BigInteger.ZERO : y[j][i-pad_len];
+				
+				// gamma_(i+1) = 2*gamma_i + f_i
+				BigInteger f = yi.equals(BigInteger.ONE) ? one_minus_x[i] : xs[i];
+				gamma = backend.modMultiply(backend.modMultiply(gamma, gamma, N_squared), f, N_squared);
+				
+				// mu_i = (d_i + (gamma_(i+1) - 1)*r)*(s1-s0) + s1+s0
+				r = new BigInteger(pub.getBits(), rng).multiply(part1).mod(N);
+				BigInteger tmp = backend.modPow(backend.modMultiply(gamma, m_one, N_squared), r, N_squared);
+				tmp = backend.modMultiply(x_part1[i], tmp, N_squared);
+				mu[i] = backend.modMultiply(tmp, pub.encode(part2.subtract(yi.multiply(part1))), N_squared);
+			}
+			
+			// permute mu
+			Collections.shuffle(Arrays.asList(mu), rng);
+			results[j] = new CiphertextBatch(mu, pub).toArray();
+		})).join();
+		
+		return results;
+	}
+	
+	/**
+	 * Performs the receiver function of the GT-SCOT protocol, decrypting
+	 * in the common ForkJoin pool
 	 * 
 	 * @param priv the private key for decryption
 	 * @param mu the encrypted vector output by the sender
@@ -126,27 +251,96 @@ public class GTSCOT {
 	 * message space however, or the protocol won't work.
 	 * @return returns the decryption of the answer from the server
 	 * @throws BigIntegerClassNotValid 
+	 * @see #receiver(PrivateKey, EncryptedInteger[], BigInteger, ForkJoinPool)
 	 */
 	public static BigInteger receiver(PrivateKey priv, EncryptedInteger[] mu, 
 			BigInteger max) throws BigIntegerClassNotValid {
-		BigInteger rval = null;
-		BigInteger two = new BigInteger("2");
-		for (EncryptedInteger i : mu) {
+		return GTSCOT.receiver(priv, mu, max, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Performs the receiver function of the GT-SCOT protocol, decrypting
+	 * the elements of mu in parallel. The answer is the only element below
+	 * max, so once a second one is found the result is known to be null
+	 * and elements which have not been decrypted yet are skipped.
+	 * 
+	 * @param priv the private key for decryption
+	 * @param mu the encrypted vector output by the sender
+	 * @param max the max value used to determine membership in D_s
+	 * @param pool the pool to decrypt in
+	 * @return returns the decryption of the answer from the server, or null
+	 * if there is no single answer
+	 * @see #receiver(PrivateKey, EncryptedInteger[], BigInteger)
+	 */
+	public static BigInteger receiver(final PrivateKey priv, final EncryptedInteger[] mu, 
+			final BigInteger max, ForkJoinPool pool) {
+		return pool.submit(() -> GTSCOT.receive(priv, mu, max)).join();
+	}
+	
+	/**
+	 * Performs the receiver function of the GT-SCOT protocol for the
+	 * vectors output by the batch sender, in the common ForkJoin pool
+	 * 
+	 * @param priv the private key for decryption
+	 * @param mu the encrypted vectors output by the sender
+	 * @param max the max value used to determine membership in D_s
+	 * @return the answer for each vector, in the same order, with null
+	 * where there is no single answer
+	 * @see #receiver(PrivateKey, EncryptedInteger[][], BigInteger, ForkJoinPool)
+	 */
+	public static BigInteger[] receiver(PrivateKey priv, EncryptedInteger[][] mu, 
+			BigInteger max) {
+		return GTSCOT.receiver(priv, mu, max, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Performs the receiver function of the GT-SCOT protocol for the
+	 * vectors output by the batch sender. The vectors, and the elements of
+	 * each vector, are decrypted in parallel, and each vector stops being
+	 * decrypted once its answer is known.
+	 * 
+	 * @param priv the private key for decryption
+	 * @param mu the encrypted vectors output by the sender
+	 * @param max the max value used to determine membership in D_s
+	 * @param pool the pool to decrypt in
+	 * @return the answer for each vector, in the same order, with null
+	 * where there is no single answer
+	 */
+	public static BigInteger[] receiver(final PrivateKey priv, final EncryptedInteger[][] mu, 
+			final BigInteger max, ForkJoinPool pool) {
+		final BigInteger[] results = new BigInteger[mu.length];
+		pool.submit(() -> IntStream.range(0, mu.length).parallel().forEach(j -> {
+			results[j] = GTSCOT.receive(priv, mu[j], max);
+		})).join();
+		
+		return results;
+	}
+	
+	/*
+	 * Decrypts mu in parallel in the current pool, skipping the remaining
+	 * elements once two candidates have been found
+	 */
+	private static BigInteger receive(final PrivateKey priv, EncryptedInteger[] mu, 
+			final BigInteger max) {
+		final AtomicInteger found = new AtomicInteger();
+		final AtomicReference<BigInteger> rval = new AtomicReference<BigInteger>();
+		
+		Arrays.stream(mu).parallel().forEach(e -> {
+			if (found.get() > 1)
+				return;
+			
 			// Divide the decrypted value by two since we don't divide by 2
 			// during calculation at sender's end.
-			BigInteger tmp = i.decrypt(priv).divide(two);
-			if (tmp.compareTo(max) < 0)
-				if (rval == null)
-					// we found a potential answer
-					rval = tmp;
-				else {
-					// there are multiple possible decryptions
-					rval = null;
-					break;
-				}
-		}
+			BigInteger tmp = new Ciphertext(e).decrypt(priv).shiftRight(1);
+			if (tmp.compareTo(max) < 0) {
+				// we found a potential answer
+				rval.set(tmp);
+				found.incrementAndGet();
+			}
+		});
 		
-		return rval;
+		// there may be multiple possible decryptions
+		return found.get() == 1 ? rval.get() : null;
 	}
 	
 	// Helper functions
@@ -176,13 +370,8 @@ public class GTSCOT {
 	public static EncryptedInteger[] createEncryptedVector(PublicKey pub, 
 			BigInteger x) throws BigIntegerClassNotValid {
 		BigInteger[] tmp = GTSCOT.createVector(x);
-		EncryptedInteger[] encrypted_tmp = new EncryptedInteger[tmp.length];
-		
-		for (int i=0; i<tmp.length; i++) {
-			encrypted_tmp[i] = new EncryptedInteger(tmp[i], pub);
-		}
 		
-		return encrypted_tmp;
+		return new BatchEncryptor(pub).encrypt(tmp).toArray();
 	}
 	
 	private static EncryptedInteger computeF(EncryptedInteger xi, BigInteger yi) throws PublicKeysNotEqualException, BigIntegerClassNotValid {
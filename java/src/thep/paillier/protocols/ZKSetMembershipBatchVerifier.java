@@ -0,0 +1,361 @@
+package thep.paillier.protocols;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import thep.paillier.MontgomeryContext;
+import thep.paillier.MultiExponentiation;
+import thep.paillier.PublicKey;
+import thep.paillier.SharedRandom;
+import thep.paillier.exceptions.ZKSetMembershipException;
+
+/**
+ * Verifies many non-interactive set membership proofs for the same set
+ * together. Each proof j requires, for every member s_i of the set,
+ *
+ *   v_ij^N = (g^-s_i * c_j)^e_ij * u_ij mod N Squared
+ *
+ * which costs two full exponentiations per member. Instead all these
+ * equations are raised to random exponents r_ij of a few bits and
+ * multiplied together:
+ *
+ *   (prod v_ij^r_ij)^N = g^-(sum r_ij e_ij s_i) * prod c_j^(sum_i r_ij e_ij) * prod u_ij^r_ij
+ *
+ * The products are multi-exponentiations, so a batch costs about one full
+ * exponentiation per proof rather than two per member of the set.
+ *
+ * The random exponents cannot detect an error of order 2: replacing v_ij
+ * by N Squared - v_ij negates one equation, and the combination still holds
+ * whenever r_ij is even. So a batch of two or more proofs is checked up to
+ * a square root of one, by comparing the squares of both sides, and may
+ * accept a proof whose v values were changed by such a root. A proof
+ * accepted this way can be turned into one accepted by
+ * ZKSetMembershipVerifier by multiplying v_ij by that root, since a root of
+ * one is its own N-th power, so it proves the same statement, but the
+ * proof itself is not valid. A single proof uses no random exponents and is
+ * always checked exactly, like ZKSetMembershipVerifier does.
+ *
+ * Valid proofs always pass. A batch containing a proof whose error has an
+ * order divisible by p or q passes with probability about 2^-bits. An
+ * error of some other small odd order l, dividing p-1 or q-1, passes with
+ * probability up to 1/l, but like a root of one such an error is an N-th
+ * power and could equally be folded into v.
+ *
+ * When a batch fails it is split in half and each half is checked again,
+ * until the invalid proofs are found. Single proofs are always checked
+ * on their own, exactly, so an invalid proof can never cause a valid one
+ * to be rejected.
+ *
+ * @see ZKSetMembershipProof
+ * @see ZKSetMembershipVerifier
+ */
+public class ZKSetMembershipBatchVerifier {
+	/**
+	 * The default bit length of the random exponents
+	 */
+	public static final int DEFAULT_BITS = 64;
+	/**
+	 * The default number of proofs read from a stream per batch
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	private static final BigInteger DEFAULT_A = new BigInteger("128");
+	private ZKSetMembershipContext context;
+	private BigInteger A;
+	private int bits;
+	
+	/**
+	 * Constructs a batch verifier for challenges less than 128
+	 * 
+	 * @param context the context for the public key and set
+	 */
+	public ZKSetMembershipBatchVerifier(ZKSetMembershipContext context) {
+		this(context, DEFAULT_A, DEFAULT_BITS);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param context the context for the public key and set
+	 * @param A the upper bound on the challenge agreed upon with the provers
+	 * @param bits the bit length of the random exponents
+	 */
+	public ZKSetMembershipBatchVerifier(ZKSetMembershipContext context, BigInteger A, int bits) {
+		if (bits < 1) {
+			throw new IllegalArgumentException("The random exponents must have at least one bit");
+		}
+		
+		this.context = context;
+		this.A = A;
+		this.bits = bits;
+	}
+	
+	/**
+	 * Checks whether all proofs are valid, with a single batch. A batch of
+	 * two or more proofs only checks the equations up to a square root of
+	 * one, so it also accepts proofs whose v values were multiplied by such
+	 * a root, which ZKSetMembershipVerifier rejects. A single proof is
+	 * checked exactly.
+	 * 
+	 * @param proofs the proofs, which must be for the set of the context
+	 * @return true if all proofs are valid, or valid up to a square root of
+	 * one when there are two or more, otherwise false
+	 * @throws ZKSetMembershipException
+	 */
+	public boolean verifyAll(ZKSetMembershipProof[] proofs) throws ZKSetMembershipException {
+		MessageDigest hashFunc = ZKSetMembershipVerifier.hashFunction();
+		for (ZKSetMembershipProof proof : proofs) {
+			if (!this.isWellFormed(proof, hashFunc)) {
+				return false;
+			}
+		}
+		
+		if (proofs.length == 1) {
+			return this.checkSingle(proofs[0]);
+		}
+		
+		return proofs.length == 0 || this.checkBatch(proofs, 0, proofs.length);
+	}
+	
+	/**
+	 * Checks each proof. The proofs are checked as one batch, and only when
+	 * it fails the batch is split to find the invalid proofs. A proof whose
+	 * v values were multiplied by a square root of one is accepted when it
+	 * is part of a batch of two or more which passes, as for verifyAll(),
+	 * and rejected when the splitting reaches it on its own.
+	 * 
+	 * @param proofs the proofs, which must be for the set of the context
+	 * @return for each proof, true if it is valid, or valid up to a square
+	 * root of one and in a batch which passed, otherwise false
+	 * @throws ZKSetMembershipException
+	 */
+	public boolean[] verify(ZKSetMembershipProof[] proofs) throws ZKSetMembershipException {
+		boolean[] results = new boolean[proofs.length];
+		MessageDigest hashFunc = ZKSetMembershipVerifier.hashFunction();
+		
+		// Proofs which fail the cheap checks are left out of the batch
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int j=0; j<proofs.length; j++) {
+			if (this.isWellFormed(proofs[j], hashFunc)) {
+				indices.add(j);
+			}
+		}
+		
+		ZKSetMembershipProof[] batch = new ZKSetMembershipProof[indices.size()];
+		for (int j=0; j<batch.length; j++) {
+			batch[j] = proofs[indices.get(j)];
+		}
+		
+		boolean[] batch_results = new boolean[batch.length];
+		if (batch.length > 0) {
+			this.bisect(batch, 0, batch.length, batch_results);
+		}
+		
+		for (int j=0; j<batch.length; j++) {
+			results[indices.get(j)] = batch_results[j];
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Checks all proofs read from a stream, with the default batch size
+	 * 
+	 * @param reader the reader for the stream of proofs
+	 * @return the positions in the stream of the invalid proofs, counting
+	 * from zero
+	 * @throws IOException if the stream cannot be read or is not valid
+	 * @throws ZKSetMembershipException
+	 * @see #verify(ZKSetMembershipProofReader, int)
+	 */
+	public List<Long> verify(ZKSetMembershipProofReader reader) throws IOException, ZKSetMembershipException {
+		return this.verify(reader, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Checks all proofs read from a stream. The proofs are read and checked
+	 * batchSize at a time, so only one batch is held in memory however long
+	 * the stream is.
+	 * 
+	 * @param reader the reader for the stream of proofs
+	 * @param batchSize the number of proofs to check together
+	 * @return the positions in the stream of the invalid proofs, counting
+	 * from zero
+	 * @throws IOException if the stream cannot be read or is not valid
+	 * @throws ZKSetMembershipException
+	 */
+	public List<Long> verify(ZKSetMembershipProofReader reader, int batchSize) 
+			throws IOException, ZKSetMembershipException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be at least one");
+		}
+		
+		List<Long> invalid = new ArrayList<Long>();
+		ZKSetMembershipProof[] batch = new ZKSetMembershipProof[batchSize];
+		
+		while (true) {
+			long start = reader.getCount();
+			int size = 0;
+			ZKSetMembershipProof proof;
+			while (size < batchSize && (proof = reader.read()) != null) {
+				batch[size++] = proof;
+			}
+			if (size == 0) {
+				return invalid;
+			}
+			
+			ZKSetMembershipProof[] proofs = size == batchSize ? batch : Arrays.copyOf(batch, size);
+			boolean[] results = this.verify(proofs);
+			for (int j=0; j<size; j++) {
+				if (!results[j]) {
+					invalid.add(start + j);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Checks proofs[from, to), marking the valid ones in results. Every
+	 * half is checked again, since a half which passes may still hide an
+	 * invalid proof with a small probability, and a single proof is only
+	 * ever marked by checkSingle.
+	 */
+	private void bisect(ZKSetMembershipProof[] proofs, int from, int to, 
+			boolean[] results) throws ZKSetMembershipException {
+		if (to - from == 1) {
+			results[from] = this.checkSingle(proofs[from]);
+			return;
+		}
+		
+		if (this.checkBatch(proofs, from, to)) {
+			for (int j=from; j<to; j++) {
+				results[j] = true;
+			}
+			return;
+		}
+		
+		int mid = (from + to) >>> 1;
+		this.bisect(proofs, from, mid, results);
+		this.bisect(proofs, mid, to, results);
+	}
+	
+	/*
+	 * Checks the combined equation for proofs[from, to) up to a square root
+	 * of one
+	 */
+	private boolean checkBatch(ZKSetMembershipProof[] proofs, int from, int to) {
+		PublicKey pub = this.context.getPublicKey();
+		BigInteger N = pub.getN();
+		BigInteger N_Squared = pub.getNSquared();
+		MontgomeryContext ctx = pub.getMontgomeryContext();
+		BigInteger[] theSet = this.context.getSet();
+		Random rng = SharedRandom.current();
+		
+		int k = theSet.length;
+		int m = to - from;
+		BigInteger[] vVals = new BigInteger[m * k];
+		BigInteger[] uVals = new BigInteger[m * k];
+		BigInteger[] r = new BigInteger[m * k];
+		BigInteger[] cipherVals = new BigInteger[m];
+		BigInteger[] cipherExponents = new BigInteger[m];
+		BigInteger gExponent = BigInteger.ZERO;
+		
+		for (int j=0; j<m; j++) {
+			ZKSetMembershipProof proof = proofs[from + j];
+			BigInteger exponent = BigInteger.ZERO;
+			
+			for (int i=0; i<k; i++) {
+				int idx = j * k + i;
+				r[idx] = new BigInteger(this.bits, rng);
+				vVals[idx] = proof.getV(i);
+				uVals[idx] = proof.getU(i);
+				
+				BigInteger tmp = r[idx].multiply(proof.getE(i));
+				exponent = exponent.add(tmp);
+				gExponent = gExponent.add(tmp.multiply(theSet[i]));
+			}
+			
+			cipherVals[j] = proof.getCipherVal().getCipherVal();
+			cipherExponents[j] = exponent;
+		}
+		
+		BigInteger lhs = MultiExponentiation.compute(ctx, vVals, r).modPow(N, N_Squared);
+		
+		BigInteger rhs = pub.encode(gExponent.negate());
+		rhs = rhs.multiply(MultiExponentiation.compute(ctx, cipherVals, cipherExponents)).mod(N_Squared);
+		rhs = rhs.multiply(MultiExponentiation.compute(ctx, uVals, r)).mod(N_Squared);
+		
+		return ZKSetMembershipBatchVerifier.equalUpToRoot(lhs, rhs, N_Squared);
+	}
+	
+	/*
+	 * Checks the equations of one well formed proof exactly
+	 */
+	private boolean checkSingle(ZKSetMembershipProof proof) {
+		PublicKey pub = this.context.getPublicKey();
+		BigInteger N = pub.getN();
+		BigInteger N_Squared = pub.getNSquared();
+		BigInteger c = proof.getCipherVal().getCipherVal();
+		
+		for (int i=0; i<proof.size(); i++) {
+			BigInteger lhs = proof.getV(i).modPow(N, N_Squared);
+			BigInteger rhs = this.context.getNegatedEncoding(i).multiply(c).mod(N_Squared);
+			rhs = rhs.modPow(proof.getE(i), N_Squared).multiply(proof.getU(i)).mod(N_Squared);
+			
+			if (!lhs.equals(rhs)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/*
+	 * Returns true if a^2 = b^2 mod m, that is if a and b differ by a square
+	 * root of one
+	 */
+	private static boolean equalUpToRoot(BigInteger a, BigInteger b, BigInteger m) {
+		return a.multiply(a).mod(m).equals(b.multiply(b).mod(m));
+	}
+	
+	/*
+	 * Checks everything about a proof except the exponentiations: the sizes,
+	 * the public key, the ranges of the values, the challenge and the sum of
+	 * the e values
+	 */
+	private boolean isWellFormed(ZKSetMembershipProof proof, MessageDigest hashFunc) {
+		PublicKey pub = this.context.getPublicKey();
+		BigInteger N = pub.getN();
+		BigInteger N_Squared = pub.getNSquared();
+		int k = this.context.size();
+		
+		if (proof.size() != k || proof.getEs().length != k || proof.getVs().length != k) {
+			return false;
+		}
+		if (!proof.getCipherVal().getPublicKey().equals(pub)) {
+			return false;
+		}
+		
+		BigInteger eValAccum = BigInteger.ZERO;
+		for (int i=0; i<k; i++) {
+			if (!ZKSetMembershipBatchVerifier.inRange(proof.getU(i), N_Squared) ||
+					!ZKSetMembershipBatchVerifier.inRange(proof.getV(i), N_Squared) ||
+					proof.getE(i).signum() < 0 || proof.getE(i).compareTo(N) >= 0) {
+				return false;
+			}
+			eValAccum = eValAccum.add(proof.getE(i));
+		}
+		
+		BigInteger challenge = ZKSetMembershipVerifier.hashCommitments(hashFunc, proof.getUs(), this.A);
+		
+		return challenge.equals(proof.getChallenge()) && eValAccum.mod(N).equals(challenge);
+	}
+	
+	private static boolean inRange(BigInteger x, BigInteger modulus) {
+		return x.signum() > 0 && x.compareTo(modulus) < 0;
+	}
+}
@@ -0,0 +1,168 @@
+package thep.paillier.protocols;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import thep.paillier.PublicKey;
+
+/**
+ * The values a set membership verifier needs that depend only on the
+ * public key and the set, g^-s_i mod N Squared for each member s_i. A
+ * context is immutable and can be shared by any number of verifiers and
+ * threads.
+ *
+ * Contexts for the sets in use are kept in a bounded cache, so that
+ * verifying many proofs for the same set, such as {0, 1} for ballots,
+ * computes these values once. When the cache is full the least recently
+ * used context is evicted.
+ *
+ * @see ZKSetMembershipVerifier
+ */
+public class ZKSetMembershipContext {
+	/**
+	 * The default maximum number of cached contexts
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 64;
+	private static int cacheSize = DEFAULT_CACHE_SIZE;
+	private static final Map<Key, ZKSetMembershipContext> CACHE =
+			new LinkedHashMap<Key, ZKSetMembershipContext>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		protected boolean removeEldestEntry(Map.Entry<Key, ZKSetMembershipContext> eldest) {
+			return this.size() > cacheSize;
+		}
+	};
+	
+	private PublicKey pub;
+	private BigInteger[] theSet;
+	private BigInteger[] negatedEncodings; // g^-theSet[i] mod N Squared
+	
+	/**
+	 * Constructs a context without using the cache
+	 * 
+	 * @param pub the public key
+	 * @param theSet the set on which to test membership, which is copied
+	 */
+	public ZKSetMembershipContext(PublicKey pub, BigInteger[] theSet) {
+		this.pub = pub;
+		this.theSet = theSet.clone();
+		this.negatedEncodings = new BigInteger[theSet.length];
+		
+		for (int i=0; i<theSet.length; i++) {
+			this.negatedEncodings[i] = pub.encode(theSet[i].negate());
+		}
+	}
+	
+	/**
+	 * Returns the cached context for the public key and set, creating it
+	 * if it is not cached. Sets are equal if they have the same members in
+	 * the same order.
+	 * 
+	 * @param pub the public key
+	 * @param theSet the set on which to test membership
+	 * @return the context
+	 */
+	public static ZKSetMembershipContext get(PublicKey pub, BigInteger[] theSet) {
+		Key key = new Key(pub.getN(), theSet.clone());
+		
+		synchronized (CACHE) {
+			ZKSetMembershipContext context = CACHE.get(key);
+			if (context == null) {
+				context = new ZKSetMembershipContext(pub, key.theSet);
+				CACHE.put(key, context);
+			}
+			
+			return context;
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of cached contexts, evicting the least
+	 * recently used contexts if there are more
+	 * 
+	 * @param size the maximum number of cached contexts, at least zero
+	 */
+	public static void setCacheSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("The cache size must not be negative");
+		}
+		
+		synchronized (CACHE) {
+			cacheSize = size;
+			while (CACHE.size() > size) {
+				CACHE.remove(CACHE.keySet().iterator().next());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of cached contexts
+	 * @return the number of cached contexts
+	 */
+	public static int getCachedCount() {
+		synchronized (CACHE) {
+			return CACHE.size();
+		}
+	}
+	
+	/**
+	 * Returns the public key
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Returns the number of members in the set
+	 * @return the number of members in the set
+	 */
+	public int size() {
+		return this.theSet.length;
+	}
+	
+	/**
+	 * Returns a copy of the set
+	 * @return a copy of the set
+	 */
+	public BigInteger[] getSet() {
+		return this.theSet.clone();
+	}
+	
+	/*
+	 * Returns g^-theSet[i] mod N Squared
+	 */
+	BigInteger getNegatedEncoding(int i) {
+		return this.negatedEncodings[i];
+	}
+	
+	/*
+	 * A cache key, the modulus and the members of the set
+	 */
+	private static final class Key {
+		private final BigInteger n;
+		private final BigInteger[] theSet;
+		
+		Key(BigInteger n, BigInteger[] theSet) {
+			this.n = n;
+			this.theSet = theSet;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			
+			Key tmp = (Key) other;
+			return this.n.equals(tmp.n) && Arrays.equals(this.theSet, tmp.theSet);
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * this.n.hashCode() + Arrays.hashCode(this.theSet);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package thep.paillier.protocols;
+
+import java.math.BigInteger;
+
+import thep.paillier.EncryptedInteger;
+
+/**
+ * A complete non-interactive set membership proof for one ciphertext: the
+ * commitments, the challenge derived from them, and the response. A proof
+ * is immutable, so it can be queued and verified later, alone with
+ * ZKSetMembershipVerifier or together with others with
+ * ZKSetMembershipBatchVerifier.
+ *
+ * @see ZKSetMembershipProver
+ * @see ZKSetMembershipBatchVerifier
+ */
+public final class ZKSetMembershipProof {
+	private final EncryptedInteger cipherVal;
+	private final BigInteger[] uVals;
+	private final BigInteger challenge;
+	private final BigInteger[] eVals;
+	private final BigInteger[] vVals;
+	
+	/**
+	 * Constructs a proof from its values. The arrays are copied.
+	 * 
+	 * @param cipherVal the cipher text the proof is about
+	 * @param uVals the commitments of the prover
+	 * @param challenge the challenge
+	 * @param eVals the e values of the response
+	 * @param vVals the v values of the response
+	 */
+	public ZKSetMembershipProof(EncryptedInteger cipherVal, BigInteger[] uVals, BigInteger challenge,
+			BigInteger[] eVals, BigInteger[] vVals) {
+		this.cipherVal = cipherVal;
+		this.uVals = uVals.clone();
+		this.challenge = challenge;
+		this.eVals = eVals.clone();
+		this.vVals = vVals.clone();
+	}
+	
+	/**
+	 * Returns the cipher text the proof is about
+	 * @return the cipher text
+	 */
+	public EncryptedInteger getCipherVal() {
+		return this.cipherVal;
+	}
+	
+	/**
+	 * Returns a copy of the commitments
+	 * @return the u values
+	 */
+	public BigInteger[] getUs() {
+		return this.uVals.clone();
+	}
+	
+	/**
+	 * Returns the challenge
+	 * @return the challenge
+	 */
+	public BigInteger getChallenge() {
+		return this.challenge;
+	}
+	
+	/**
+	 * Returns a copy of the e values of the response
+	 * @return the e values
+	 */
+	public BigInteger[] getEs() {
+		return this.eVals.clone();
+	}
+	
+	/**
+	 * Returns a copy of the v values of the response
+	 * @return the v values
+	 */
+	public BigInteger[] getVs() {
+		return this.vVals.clone();
+	}
+	
+	/**
+	 * Returns the number of members of the set the proof is for
+	 * @return the number of members
+	 */
+	public int size() {
+		return this.uVals.length;
+	}
+	
+	/*
+	 * Returns single values without copying the arrays
+	 */
+	BigInteger getU(int i) {
+		return this.uVals[i];
+	}
+	
+	BigInteger getE(int i) {
+		return this.eVals[i];
+	}
+	
+	BigInteger getV(int i) {
+		return this.vVals[i];
+	}
+}
@@ -0,0 +1,187 @@
+package thep.paillier.protocols;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import thep.paillier.Ciphertext;
+import thep.paillier.PublicKey;
+
+/**
+ * Reads set membership proofs in the binary format written by
+ * ZKSetMembershipProofWriter, one record at a time, so that a stream of
+ * any length can be verified without holding all of its proofs in memory
+ * and without any object deserialization.
+ *
+ * @see ZKSetMembershipProofWriter
+ * @see ZKSetMembershipBatchVerifier#verify(ZKSetMembershipProofReader, int)
+ */
+public class ZKSetMembershipProofReader implements Closeable {
+	/**
+	 * The largest record which is accepted, so that a corrupt length
+	 * cannot cause a huge allocation
+	 */
+	public static final int MAX_RECORD_LENGTH = 1 << 26;
+	private DataInputStream in;
+	private PublicKey pub;
+	private byte[] buffer;
+	private long count;
+	
+	/**
+	 * Constructs a proof reader over the given stream, which must start with
+	 * the file header
+	 * 
+	 * @param in the stream containing the proofs
+	 * @param pub the public key the proofs are for
+	 * @throws IOException if the header is not valid
+	 */
+	public ZKSetMembershipProofReader(InputStream in, PublicKey pub) throws IOException {
+		this.in = new DataInputStream(in);
+		this.pub = pub;
+		this.buffer = new byte[0];
+		this.count = 0;
+		
+		try {
+			if (this.in.readInt() != ZKSetMembershipProofWriter.MAGIC) {
+				throw new IOException("Not a proof file");
+			}
+			
+			short version = this.in.readShort();
+			if (version != ZKSetMembershipProofWriter.VERSION) {
+				throw new IOException("Unsupported proof file version " + version);
+			}
+			this.in.readShort(); // reserved
+		} catch (EOFException e) {
+			throw new IOException("Not a proof file");
+		}
+	}
+	
+	/**
+	 * Constructs a buffered proof reader over a channel, such as a
+	 * FileChannel, which must be positioned at the file header
+	 * 
+	 * @param channel the channel containing the proofs
+	 * @param pub the public key the proofs are for
+	 * @throws IOException if the header is not valid
+	 */
+	public ZKSetMembershipProofReader(ReadableByteChannel channel, PublicKey pub) throws IOException {
+		this(new BufferedInputStream(Channels.newInputStream(channel), ZKSetMembershipProofWriter.BUFFER_SIZE), pub);
+	}
+	
+	/**
+	 * Reads the next proof
+	 * 
+	 * @return the proof, or null at the end of the stream
+	 * @throws IOException if the record is not valid
+	 */
+	public ZKSetMembershipProof read() throws IOException {
+		int first = this.in.read();
+		if (first < 0) {
+			return null;
+		}
+		
+		ByteBuffer record;
+		try {
+			int length = (first << 24) | (this.in.readUnsignedByte() << 16) | this.in.readUnsignedShort();
+			if (length < 0 || length > MAX_RECORD_LENGTH) {
+				throw new IOException("Invalid proof record length " + length);
+			}
+			
+			if (this.buffer.length < length) {
+				this.buffer = new byte[length];
+			}
+			this.in.readFully(this.buffer, 0, length);
+			record = ByteBuffer.wrap(this.buffer, 0, length);
+		} catch (EOFException e) {
+			throw new IOException("Truncated proof record");
+		}
+		
+		try {
+			int k = record.getInt();
+			if (k < 1 || k > record.remaining()) {
+				throw new IOException("Invalid set size " + k);
+			}
+			
+			BigInteger cipherVal = ZKSetMembershipProofReader.readField(record);
+			BigInteger challenge = ZKSetMembershipProofReader.readField(record);
+			BigInteger[] uVals = ZKSetMembershipProofReader.readFields(record, k);
+			BigInteger[] eVals = ZKSetMembershipProofReader.readFields(record, k);
+			BigInteger[] vVals = ZKSetMembershipProofReader.readFields(record, k);
+			
+			if (record.hasRemaining()) {
+				throw new IOException("Unexpected data at the end of the proof record");
+			}
+			if (cipherVal.compareTo(this.pub.getNSquared()) >= 0) {
+				throw new IOException("The cipher text is out of range");
+			}
+			
+			this.count++;
+			return new ZKSetMembershipProof(new Ciphertext(cipherVal, this.pub).toEncryptedInteger(),
+					uVals, challenge, eVals, vVals);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated proof record");
+		}
+	}
+	
+	/**
+	 * Returns the number of proofs read so far
+	 * 
+	 * @return the number of proofs read
+	 */
+	public long getCount() {
+		return this.count;
+	}
+	
+	/**
+	 * Returns the public key the proofs are for
+	 * 
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return this.pub;
+	}
+	
+	/**
+	 * Closes the underlying stream
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.in.close();
+	}
+	
+	/*
+	 * Reads k length-prefixed magnitudes
+	 */
+	private static BigInteger[] readFields(ByteBuffer record, int k) throws IOException {
+		BigInteger[] values = new BigInteger[k];
+		for (int i=0; i<k; i++) {
+			values[i] = ZKSetMembershipProofReader.readField(record);
+		}
+		
+		return values;
+	}
+	
+	/*
+	 * Reads one length-prefixed magnitude
+	 */
+	private static BigInteger readField(ByteBuffer record) throws IOException {
+		int length = record.getInt();
+		if (length < 0 || length > record.remaining()) {
+			throw new IOException("Truncated proof record");
+		}
+		
+		byte[] magnitude = new byte[length];
+		record.get(magnitude);
+		
+		return new BigInteger(1, magnitude);
+	}
+}
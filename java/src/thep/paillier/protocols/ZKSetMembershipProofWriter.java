@@ -0,0 +1,130 @@
+package thep.paillier.protocols;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes non-interactive set membership proofs in a binary format. A proof
+ * file starts with a fixed header followed by any number of proof records:
+ *
+ * <pre>
+ * header: magic "ZKSP" (4 bytes), version (2 bytes), reserved (2 bytes)
+ * record: length of the rest of the record (4 bytes), set size k (4 bytes),
+ *         cipher text, challenge, k u values, k e values, k v values
+ * field:  length (4 bytes), unsigned big-endian magnitude
+ * </pre>
+ *
+ * The public key is not stored, it is given to the reader. All integers
+ * are big-endian.
+ *
+ * @see ZKSetMembershipProofReader
+ */
+public class ZKSetMembershipProofWriter implements Closeable {
+	static final int MAGIC = 0x5A4B5350; // "ZKSP"
+	static final short VERSION = 1;
+	static final int HEADER_LENGTH = 8;
+	static final int BUFFER_SIZE = 1 << 16;
+	
+	private DataOutputStream out;
+	private ByteArrayOutputStream record;
+	private DataOutputStream recordOut;
+	
+	/**
+	 * Constructs a proof writer and writes the file header to the stream
+	 * 
+	 * @param out the stream to write the proofs to
+	 * @throws IOException
+	 */
+	public ZKSetMembershipProofWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.record = new ByteArrayOutputStream();
+		this.recordOut = new DataOutputStream(this.record);
+		
+		this.out.writeInt(MAGIC);
+		this.out.writeShort(VERSION);
+		this.out.writeShort(0);
+	}
+	
+	/**
+	 * Constructs a buffered proof writer over a channel, such as a
+	 * FileChannel, and writes the file header to it. The proofs reach the
+	 * channel when flush() or close() is called.
+	 * 
+	 * @param channel the channel to write the proofs to
+	 * @throws IOException
+	 */
+	public ZKSetMembershipProofWriter(WritableByteChannel channel) throws IOException {
+		this(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+	}
+	
+	/**
+	 * Writes a proof record
+	 * 
+	 * @param proof the proof to write
+	 * @throws IOException
+	 */
+	public void write(ZKSetMembershipProof proof) throws IOException {
+		int k = proof.size();
+		if (proof.getEs().length != k || proof.getVs().length != k) {
+			throw new IllegalArgumentException("The proof must have one u, e and v value per member");
+		}
+		
+		this.record.reset();
+		this.recordOut.writeInt(k);
+		this.writeField(proof.getCipherVal().getCipherVal());
+		this.writeField(proof.getChallenge());
+		for (int i=0; i<k; i++) {
+			this.writeField(proof.getU(i));
+		}
+		for (int i=0; i<k; i++) {
+			this.writeField(proof.getE(i));
+		}
+		for (int i=0; i<k; i++) {
+			this.writeField(proof.getV(i));
+		}
+		this.recordOut.flush();
+		
+		this.out.writeInt(this.record.size());
+		this.record.writeTo(this.out);
+	}
+	
+	/**
+	 * Flushes the underlying stream
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+	
+	/**
+	 * Closes the underlying stream
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.out.close();
+	}
+	
+	/*
+	 * Writes one length-prefixed magnitude
+	 */
+	private void writeField(BigInteger x) throws IOException {
+		if (x.signum() < 0) {
+			throw new IllegalArgumentException("Proof values must not be negative");
+		}
+		
+		byte[] bytes = x.toByteArray();
+		int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+		
+		this.recordOut.writeInt(bytes.length - offset);
+		this.recordOut.write(bytes, offset, bytes.length - offset);
+	}
+}
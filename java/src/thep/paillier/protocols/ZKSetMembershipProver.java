@@ -1,14 +1,17 @@
 package thep.paillier.protocols;
 
-import java.lang.reflect.Constructor;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
+import thep.paillier.ArithmeticBackend;
 import thep.paillier.EncryptedInteger;
 import thep.paillier.PublicKey;
+import thep.paillier.SharedRandom;
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 import thep.paillier.exceptions.ZKSetMembershipException;
 
@@ -23,11 +26,8 @@ public class ZKSetMembershipProver {
 	private BigInteger rho;
 	private Random rng;
 	private MessageDigest hashFunc;
-	@SuppressWarnings("rawtypes")
-	private Constructor rngCons;
-	@SuppressWarnings("rawtypes")
-	private Constructor biCons;
-
+	private ArithmeticBackend backend;
+	
 	/**
 	 * Constructs the class using BigInteger for big integers
 	 * @param pub the public key
@@ -60,8 +60,7 @@ public class ZKSetMembershipProver {
 		this.theSet = theSet;
 		this.msgIndex = msgIndex;
 		this.cipherVal = cipherVal;
-		this.rngCons = this.findRngCons(c);
-		this.biCons = this.findBICons(c);
+		this.backend = pub.getArithmeticBackend(c);
 		
 		// create the secure random number generator
 		this.rng = new SecureRandom();
@@ -80,7 +79,7 @@ public class ZKSetMembershipProver {
 	/**
 	 * Generates the commitments for proving that the cipher text is in the given set.
 	 * The commitments are returned and should be sent to the verifier.
-	 *
+	 * 
 	 * @return the commitments
 	 * @throws ZKSetMembershipException
 	 * @throws BigIntegerClassNotValid 
@@ -91,23 +90,13 @@ public class ZKSetMembershipProver {
 		BigInteger N = this.pub.getN();
 		BigInteger N_squared = this.pub.getNSquared();
 		BigInteger c = cipherVal.getCipherVal();
-		BigInteger c_inverse = c.modInverse(N_squared);
-		BigInteger g = this.pub.getG();
+		BigInteger c_inverse = this.backend.modInverse(c, N_squared);
 		int bits = this.pub.getBits();
 		
 		if (msgIndex >= setLen || msgIndex < 0) { // check the input data
 			throw new ZKSetMembershipException("Index out of Range");
 		}
 		
-		// if necessary create values with given class
-		if (this.biCons != null) {
-			try {
-				g = (BigInteger) this.biCons.newInstance(g);
-			} catch (Exception e) {
-				throw new BigIntegerClassNotValid("Could not construct");
-			}
-		}
-		
 		// generate a random rho
 		this.rho = new BigInteger(bits, this.rng);
 		// rho needs to be less than N, but not zero
@@ -128,48 +117,26 @@ public class ZKSetMembershipProver {
 		this.vVals = new BigInteger[setLen];
 		for (int i=0; i<setLen; i++) {
 			// generate random v value
-			try {
-				this.vVals[i] = (BigInteger) this.rngCons.newInstance(bits, this.rng);
-				
-				// the v value must be less than n and not 0
-				while (this.vVals[i].compareTo(N) > 0 || this.vVals[i].compareTo(BigInteger.ZERO) == 0) {
-					this.vVals[i] = (BigInteger) this.rngCons.newInstance(bits, this.rng);
-				}
-			} catch (Exception e) {
-				throw new BigIntegerClassNotValid("Could not construct");
+			this.vVals[i] = this.backend.random(bits, this.rng);
+			
+			// the v value must be less than n and not 0
+			while (this.vVals[i].compareTo(N) > 0 || this.vVals[i].compareTo(BigInteger.ZERO) == 0) {
+				this.vVals[i] = this.backend.random(bits, this.rng);
 			}
 		}
 		
 		// calculate the commitments
 		for (int i=0; i<setLen; i++) {
 			if (i == msgIndex) {
-				BigInteger tmpRho = rho;
-				
-				if (this.biCons != null)
-					try {
-						tmpRho = (BigInteger) this.biCons.newInstance(rho);
-					} catch (Exception e) {
-						throw new BigIntegerClassNotValid("Could not construct");
-					}
-				
-				commitments[i] = tmpRho.modPow(N, N_squared);
+				commitments[i] = this.backend.modPow(rho, N, N_squared);
 			}
 			else {
-				BigInteger tmp1 = vVals[i].modPow(N, N_squared);
-				BigInteger tmp2 = g.modPow(theSet[i], N_squared);
-				
-				tmp2 = tmp2.multiply(c_inverse);
-				
-				if (this.biCons != null)
-					try {
-						tmp2 = (BigInteger) this.biCons.newInstance(tmp2);
-					} catch (Exception e) {
-						throw new BigIntegerClassNotValid("Could not construct");
-					}
+				BigInteger tmp1 = this.backend.modPow(vVals[i], N, N_squared);
+				BigInteger tmp2 = this.pub.encode(theSet[i]); // g^theSet[i]
 				
-				tmp2 = tmp2.modPow(eVals[i], N_squared);
-				commitments[i] = tmp1.multiply(tmp2);
-				commitments[i] = commitments[i].mod(N_squared);
+				tmp2 = this.backend.modMultiply(tmp2, c_inverse, N_squared);
+				tmp2 = this.backend.modPow(tmp2, eVals[i], N_squared);
+				commitments[i] = this.backend.modMultiply(tmp1, tmp2, N_squared);
 			}
 		}
 		
@@ -223,16 +190,6 @@ public class ZKSetMembershipProver {
 		BigInteger N = this.pub.getN();
 		BigInteger g = this.pub.getG();
 		
-		if (this.biCons != null) {
-			try {
-			r = (BigInteger) this.biCons.newInstance(r);
-			g = (BigInteger) this.biCons.newInstance(g);
-			}
-			catch (Exception ex) {
-				throw new BigIntegerClassNotValid("Could not construct");
-			}
-		}
-		
 		// compute e_i
 		BigInteger tmp1 = e;
 		for (int i=0; i<this.eVals.length; i++) {
@@ -244,59 +201,147 @@ public class ZKSetMembershipProver {
 		this.eVals[msgIndex] = e_i;
 		
 		// compute v_i
-		BigInteger v_i = this.rho.multiply(r.modPow(e_i, N)).mod(N);
+		BigInteger v_i = this.backend.modMultiply(this.rho, this.backend.modPow(r, e_i, N), N);
 		tmp1 = tmp1.divide(N);
-		tmp1 = g.modPow(tmp1, N);
-		v_i = v_i.multiply(tmp1).mod(N);
+		tmp1 = this.backend.modPow(g, tmp1, N);
+		v_i = this.backend.modMultiply(v_i, tmp1, N);
 		this.vVals[msgIndex] = v_i;
 	}
 	
 	/**
-	 * The V values needed for the last part of the proof
-	 * @return the v values
+	 * Generates a complete non-interactive proof, with A equal to 128, in
+	 * the common ForkJoin pool
+	 * 
+	 * @param context the context for the public key and set
+	 * @param msgIndex the index we are claiming cipherVal is in the set
+	 * @param cipherVal the cipher text for the proof
+	 * @param r the random number used during encryption
+	 * @return the proof
+	 * @throws ZKSetMembershipException
+	 * @see #prove(ZKSetMembershipContext, int, EncryptedInteger, BigInteger, BigInteger, ForkJoinPool)
 	 */
-	public BigInteger[] getVs() {
-		return this.vVals;
+	public static ZKSetMembershipProof prove(ZKSetMembershipContext context, int msgIndex, 
+			EncryptedInteger cipherVal, BigInteger r) throws ZKSetMembershipException {
+		return ZKSetMembershipProver.prove(context, msgIndex, cipherVal, r, new BigInteger("128"), 
+				ForkJoinPool.commonPool());
 	}
 	
 	/**
-	 * The E values needed for the last part of the proof
-	 * @return the e values
+	 * Generates a complete non-interactive proof in the common ForkJoin pool
+	 * 
+	 * @param context the context for the public key and set
+	 * @param msgIndex the index we are claiming cipherVal is in the set
+	 * @param cipherVal the cipher text for the proof
+	 * @param r the random number used during encryption
+	 * @param A the challenge length agreed upon in advance with the verifier
+	 * @return the proof
+	 * @throws ZKSetMembershipException
+	 * @see #prove(ZKSetMembershipContext, int, EncryptedInteger, BigInteger, BigInteger, ForkJoinPool)
 	 */
-	public BigInteger[] getEs() {
-		return this.eVals;
+	public static ZKSetMembershipProof prove(ZKSetMembershipContext context, int msgIndex, 
+			EncryptedInteger cipherVal, BigInteger r, BigInteger A) throws ZKSetMembershipException {
+		return ZKSetMembershipProver.prove(context, msgIndex, cipherVal, r, A, ForkJoinPool.commonPool());
 	}
 	
-	@SuppressWarnings("rawtypes")
-	private Constructor findRngCons(Class<? extends BigInteger> c) throws BigIntegerClassNotValid {
-		Constructor cons = null;
-		for (Constructor i : c.getConstructors()) {
-			Class[] params = i.getParameterTypes();
-			if (params.length == 2 && params[0].getCanonicalName().equals("int") &&
-					params[1].getCanonicalName().equals("java.util.Random")) {
-				cons = i;
-				break;
-			}
+	/**
+	 * Generates a complete non-interactive proof, using the Fiat-Shamir
+	 * heuristic for the challenge. Unlike the instance methods this keeps no
+	 * state, so it can be called from any number of threads at once. The
+	 * commitments are computed in parallel, and the random values are drawn
+	 * from the generator of the thread computing them.
+	 * 
+	 * @param context the context for the public key and set
+	 * @param msgIndex the index we are claiming cipherVal is in the set
+	 * @param cipherVal the cipher text for the proof
+	 * @param r the random number used during encryption
+	 * @param A the challenge length agreed upon in advance with the verifier
+	 * @param pool the pool to compute the commitments in
+	 * @return the proof
+	 * @throws ZKSetMembershipException
+	 */
+	public static ZKSetMembershipProof prove(ZKSetMembershipContext context, final int msgIndex, 
+			EncryptedInteger cipherVal, BigInteger r, BigInteger A, ForkJoinPool pool) throws ZKSetMembershipException {
+		final PublicKey pub = context.getPublicKey();
+		final BigInteger[] theSet = context.getSet();
+		final int setLen = theSet.length;
+		final BigInteger N = pub.getN();
+		final BigInteger N_squared = pub.getNSquared();
+		final ArithmeticBackend backend = pub.getArithmeticBackend();
+		
+		if (msgIndex >= setLen || msgIndex < 0) { // check the input data
+			throw new ZKSetMembershipException("Index out of Range");
 		}
 		
-		if (cons == null) {
-			throw new BigIntegerClassNotValid("Could not find the int, Random constructor");
+		final BigInteger c_inverse = backend.modInverse(cipherVal.getCipherVal(), N_squared);
+		final BigInteger rho = ZKSetMembershipProver.randomUnit(N, SharedRandom.current());
+		final BigInteger[] commitments = new BigInteger[setLen];
+		final BigInteger[] eVals = new BigInteger[setLen];
+		final BigInteger[] vVals = new BigInteger[setLen];
+		
+		// simulate the proofs for the other members, in parallel
+		pool.submit(() -> IntStream.range(0, setLen).parallel().forEach(i -> {
+			if (i == msgIndex) {
+				commitments[i] = backend.modPow(rho, N, N_squared);
+				return;
+			}
+			
+			Random rng = SharedRandom.current();
+			BigInteger e_i;
+			do {
+				e_i = new BigInteger(N.bitLength(), rng);
+			} while (e_i.compareTo(N) >= 0);
+			BigInteger v_i = ZKSetMembershipProver.randomUnit(N, rng);
+			
+			BigInteger tmp1 = backend.modPow(v_i, N, N_squared);
+			BigInteger tmp2 = backend.modMultiply(pub.encode(theSet[i]), c_inverse, N_squared);
+			tmp2 = backend.modPow(tmp2, e_i, N_squared);
+			
+			eVals[i] = e_i;
+			vVals[i] = v_i;
+			commitments[i] = backend.modMultiply(tmp1, tmp2, N_squared);
+		})).join();
+		
+		BigInteger e = ZKSetMembershipVerifier.hashCommitments(ZKSetMembershipVerifier.hashFunction(), commitments, A);
+		
+		// the real e value makes the e values sum to the challenge, and
+		// the real v value answers it
+		BigInteger e_i = e;
+		for (int i=0; i<setLen; i++) {
+			if (i != msgIndex) {
+				e_i = e_i.subtract(eVals[i]);
+			}
 		}
+		eVals[msgIndex] = e_i.mod(N);
+		vVals[msgIndex] = backend.modMultiply(rho, backend.modPow(r, eVals[msgIndex], N), N);
 		
-		return cons;
+		return new ZKSetMembershipProof(cipherVal, commitments, e, eVals, vVals);
 	}
 	
-	@SuppressWarnings("rawtypes")
-	private Constructor findBICons(Class<? extends BigInteger> c) {
-		Constructor cons = null;
-		for (Constructor i : c.getConstructors()) {
-			Class[] params = i.getParameterTypes();
-			if (params.length == 1 && params[0].getCanonicalName().equals("java.math.BigInteger")) {
-				cons = i;
-				break;
-			}
-		}
+	/*
+	 * Returns a random value in [1, N)
+	 */
+	private static BigInteger randomUnit(BigInteger N, Random rng) {
+		BigInteger x;
+		do {
+			x = new BigInteger(N.bitLength(), rng);
+		} while (x.signum() == 0 || x.compareTo(N) >= 0);
 		
-		return cons;
+		return x;
+	}
+	
+	/**
+	 * The V values needed for the last part of the proof
+	 * @return the v values
+	 */
+	public BigInteger[] getVs() {
+		return this.vVals;
+	}
+	
+	/**
+	 * The E values needed for the last part of the proof
+	 * @return the e values
+	 */
+	public BigInteger[] getEs() {
+		return this.eVals;
 	}
 }
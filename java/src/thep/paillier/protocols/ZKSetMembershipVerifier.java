@@ -1,12 +1,12 @@
 package thep.paillier.protocols;
 
-import java.lang.reflect.Constructor;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Random;
 
+import thep.paillier.ArithmeticBackend;
 import thep.paillier.EncryptedInteger;
 import thep.paillier.PublicKey;
 import thep.paillier.exceptions.BigIntegerClassNotValid;
@@ -18,11 +18,10 @@ public class ZKSetMembershipVerifier {
 	private BigInteger e;
 	private PublicKey pub;
 	private EncryptedInteger cipherVal;
-	private BigInteger[] theSet;
+	private ZKSetMembershipContext context;
 	private MessageDigest hashFunc;
-	@SuppressWarnings("rawtypes")
-	private Constructor biCons;
-
+	private ArithmeticBackend backend;
+	
 	/**
 	 * Constructor which uses BigInteger
 	 * 
@@ -51,17 +50,48 @@ public class ZKSetMembershipVerifier {
 	 */
 	public ZKSetMembershipVerifier(PublicKey pub, EncryptedInteger cipherVal, 
 			BigInteger[] uVals,	BigInteger[] theSet, Class<? extends BigInteger> c) throws ZKSetMembershipException, BigIntegerClassNotValid {
-		this.pub = pub;
+		this(ZKSetMembershipContext.get(pub, theSet), cipherVal, uVals, c);
+	}
+	
+	/**
+	 * Constructor which uses a shared context for the public key and set,
+	 * so that values depending only on the set are not recomputed for
+	 * each proof
+	 * 
+	 * @param context the context for the public key and set
+	 * @param cipherVal the cipher text
+	 * @param uVals the u values from the prover
+	 * @throws ZKSetMembershipException
+	 */
+	public ZKSetMembershipVerifier(ZKSetMembershipContext context, EncryptedInteger cipherVal,
+			BigInteger[] uVals) throws ZKSetMembershipException {
+		this(context, cipherVal, uVals, context.getPublicKey().getArithmeticBackend());
+	}
+	
+	/**
+	 * Constructor which uses a shared context for the public key and set
+	 * 
+	 * @param context the context for the public key and set
+	 * @param cipherVal the cipher text
+	 * @param uVals the u values from the prover
+	 * @param c the class to use for big integers
+	 * @throws ZKSetMembershipException
+	 * @throws BigIntegerClassNotValid
+	 */
+	public ZKSetMembershipVerifier(ZKSetMembershipContext context, EncryptedInteger cipherVal,
+			BigInteger[] uVals, Class<? extends BigInteger> c) throws ZKSetMembershipException, BigIntegerClassNotValid {
+		this(context, cipherVal, uVals, context.getPublicKey().getArithmeticBackend(c));
+	}
+	
+	private ZKSetMembershipVerifier(ZKSetMembershipContext context, EncryptedInteger cipherVal,
+			BigInteger[] uVals, ArithmeticBackend backend) throws ZKSetMembershipException {
+		this.pub = context.getPublicKey();
 		this.cipherVal = cipherVal;
 		this.uVals = uVals;
-		this.theSet = theSet;
-		this.biCons = this.findBICons(c);
+		this.context = context;
+		this.backend = backend;
 		
-		try {
-			this.hashFunc = java.security.MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new ZKSetMembershipException("Could not initialize the hash function for non-interactive mode");
-		}
+		this.hashFunc = ZKSetMembershipVerifier.hashFunction();
 	}
 	
 	/**
@@ -100,6 +130,9 @@ public class ZKSetMembershipVerifier {
 		if (eVals.length != vVals.length) {
 			throw new ZKSetMembershipException("Arrays passed to checkResponse must be same length");
 		}
+		if (eVals.length != this.context.size()) {
+			throw new ZKSetMembershipException("Arrays passed to checkResponse must be the size of the set");
+		}
 		
 		BigInteger eValAccum = BigInteger.ZERO;
 		BigInteger N_Squared = this.pub.getNSquared();
@@ -113,34 +146,12 @@ public class ZKSetMembershipVerifier {
 		}
 		
 		for (int i=0; i<eVals.length; i++) {
-			BigInteger tmpV = vVals[i];
-			BigInteger g = this.pub.getG();
-			
-			if (this.biCons != null) {
-				try {
-					tmpV = (BigInteger) this.biCons.newInstance(tmpV);
-					g = (BigInteger) this.biCons.newInstance(g);
-				}
-				catch (Exception e) {
-					throw new BigIntegerClassNotValid("Could not construct");
-				}
-			}
-			
-			BigInteger lhs = tmpV.modPow(this.pub.getN(), N_Squared);
-			BigInteger rhs = g.modPow(this.theSet[i], N_Squared);
-			rhs = rhs.modInverse(N_Squared);
-			rhs = rhs.multiply(this.cipherVal.getCipherVal()).mod(N_Squared);
-			
-			if (this.biCons != null)
-				try {
-					rhs = (BigInteger) this.biCons.newInstance(rhs);
-				}
-				catch (Exception e){
-					throw new BigIntegerClassNotValid("Could not construct");
-				}
-			
-			rhs = rhs.modPow(eVals[i], N_Squared);
-			rhs = rhs.multiply(this.uVals[i]).mod(N_Squared);
+			BigInteger lhs = this.backend.modPow(vVals[i], this.pub.getN(), N_Squared);
+			// g^-theSet[i] is precomputed once per set
+			BigInteger rhs = this.context.getNegatedEncoding(i);
+			rhs = this.backend.modMultiply(rhs, this.cipherVal.getCipherVal(), N_Squared);
+			rhs = this.backend.modPow(rhs, eVals[i], N_Squared);
+			rhs = this.backend.modMultiply(rhs, this.uVals[i], N_Squared);
 			
 			if (lhs.compareTo(rhs) != 0) {
 				return false;
@@ -169,11 +180,7 @@ public class ZKSetMembershipVerifier {
 		}
 		
 		// check the given digest
-		for (int i=0; i<this.uVals.length; i++) {
-			this.hashFunc.update(this.uVals[i].toByteArray());
-		}
-		
-		BigInteger testDigest = new BigInteger(this.hashFunc.digest()).mod(A);
+		BigInteger testDigest = ZKSetMembershipVerifier.hashCommitments(this.hashFunc, this.uVals, A);
 		
 		if (!testDigest.equals(challenge))	{
 			return false;
@@ -184,7 +191,30 @@ public class ZKSetMembershipVerifier {
 		
 		return this.checkResponse(eVals, vVals);
 	}
-
+	
+	/*
+	 * Returns a new instance of the hash function used for the Fiat-Shamir
+	 * challenge
+	 */
+	static MessageDigest hashFunction() throws ZKSetMembershipException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new ZKSetMembershipException("Could not initialize the hash function for non-interactive mode");
+		}
+	}
+	
+	/*
+	 * Computes the Fiat-Shamir challenge, the digest of the commitments mod A
+	 */
+	static BigInteger hashCommitments(MessageDigest hashFunc, BigInteger[] uVals, BigInteger A) {
+		for (int i=0; i<uVals.length; i++) {
+			hashFunc.update(uVals[i].toByteArray());
+		}
+		
+		return new BigInteger(hashFunc.digest()).mod(A);
+	}
+	
 	/**
 	 * Checks the response from the prover. Uses the Fiat-Shamir heuristic.
 	 * Sets A equal to 128.
@@ -200,18 +230,4 @@ public class ZKSetMembershipVerifier {
 			BigInteger challenge) throws ZKSetMembershipException, BigIntegerClassNotValid {
 		return checkResponseNonInteractive(eVals, vVals, challenge, new BigInteger("128"));
 	}
-	
-	@SuppressWarnings("rawtypes")
-	private Constructor findBICons(Class<? extends BigInteger> c) {
-		Constructor cons = null;
-		for (Constructor i : c.getConstructors()) {
-			Class[] params = i.getParameterTypes();
-			if (params.length == 1 && params[0].getCanonicalName().equals("java.math.BigInteger")) {
-				cons = i;
-				break;
-			}
-		}
-		
-		return cons;
-	}
 }